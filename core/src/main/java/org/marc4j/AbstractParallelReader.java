@@ -0,0 +1,219 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.marc4j.marc.Record;
+
+/**
+ * Base class of the readers that decode records on a pool of worker threads.
+ *
+ * <p>
+ * The thread calling {@link #next()} reads the chunk of input holding each
+ * record with {@link #readChunk()} and submits it to the executor, where it
+ * is turned into a record with {@link #decodeChunk(Object)}. At most a fixed
+ * number of records is in flight at any time. In ordered mode the records
+ * are returned in input order, otherwise as soon as they have been decoded.
+ * An error reading the input is thrown by {@link #next()} once the records
+ * read before it have been returned, as by {@link MarcStreamReader}, after
+ * which the iteration ends.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ *
+ */
+abstract class AbstractParallelReader implements MarcReader {
+
+    private ExecutorService executor;
+
+    boolean shutdownExecutor = false;
+
+    private boolean ordered;
+
+    private int maxPending;
+
+    private boolean endOfInput = false;
+
+    private LinkedList pending = new LinkedList();
+
+    private CompletionService completionService;
+
+    private int pendingCount = 0;
+
+    // the error that ended the input, thrown after the records read before it
+    private MarcException failure = null;
+
+    /**
+     * Constructs an instance that decodes records with the given executor.
+     *
+     * @param executor the executor that decodes the records
+     * @param ordered true to return the records in input order
+     * @param maxPending the maximum number of records read from the input
+     *            but not yet returned by {@link #next()}
+     */
+    AbstractParallelReader(ExecutorService executor, boolean ordered, int maxPending) {
+        if (maxPending < 1)
+            throw new IllegalArgumentException("maxPending must be at least 1");
+        this.executor = executor;
+        this.ordered = ordered;
+        this.maxPending = maxPending;
+        if (!ordered)
+            completionService = new ExecutorCompletionService(executor);
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads for readers that own their
+     * executor.
+     */
+    static ExecutorService newThreadPool(int threadCount) {
+        return Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory());
+    }
+
+    /**
+     * Reads the chunk of input that holds the next record.
+     *
+     * @return the chunk, or <code>null</code> at the end of the input
+     */
+    abstract Object readChunk();
+
+    /**
+     * Decodes a chunk returned by {@link #readChunk()}. Called on the worker
+     * threads.
+     *
+     * @return Record - the record object
+     */
+    abstract Record decodeChunk(Object chunk);
+
+    /**
+     * Returns true if the iteration has more records, false otherwise.
+     */
+    public boolean hasNext() {
+        fill();
+        return pendingCount > 0 || failure != null;
+    }
+
+    /**
+     * Returns the next record in the iteration.
+     *
+     * @return Record - the record object
+     */
+    public Record next() {
+        fill();
+        if (pendingCount == 0) {
+            if (failure != null) {
+                MarcException e = failure;
+                failure = null;
+                throw e;
+            }
+            throw new MarcException("Premature end of file encountered");
+        }
+        Future future;
+        try {
+            if (ordered)
+                future = (Future) pending.removeFirst();
+            else
+                future = completionService.take();
+            pendingCount--;
+            return (Record) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarcException("interrupted while waiting for a record", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MarcException)
+                throw (MarcException) e.getCause();
+            throw new MarcException("error decoding record", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the worker threads when they were created by this reader.
+     *
+     * <p>
+     * Records that are still being decoded are discarded. The input stream is
+     * not closed.
+     * </p>
+     */
+    public void close() {
+        if (shutdownExecutor)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Reads chunks from the input and submits them for decoding until the
+     * maximum number of pending records is reached or the input is
+     * exhausted.
+     */
+    private void fill() {
+        while (!endOfInput && pendingCount < maxPending) {
+            final Object chunk;
+            try {
+                chunk = readChunk();
+            } catch (MarcException e) {
+                // the position in the input is lost, so nothing after the
+                // error can be read
+                failure = e;
+                endOfInput = true;
+                break;
+            }
+            if (chunk == null) {
+                endOfInput = true;
+                break;
+            }
+            Callable task = new Callable() {
+                public Object call() {
+                    return decodeChunk(chunk);
+                }
+            };
+            if (ordered)
+                pending.addLast(executor.submit(task));
+            else
+                completionService.submit(task);
+            pendingCount++;
+        }
+    }
+
+    /**
+     * Creates daemon worker threads, so a reader that is not closed does not
+     * keep the virtual machine alive.
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+
+        private ThreadFactory delegate = Executors.defaultThreadFactory();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = delegate.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,433 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.Record;
+
+/**
+ * Class for writing MARC record objects in ISO 2709 format from many threads
+ * to a single output stream.
+ *
+ * <p>
+ * A single instance can be shared by any number of threads. Each thread
+ * encodes the records it writes into a buffer of its own, the same way as
+ * {@link MarcStreamWriter}, so records are encoded in parallel. Only
+ * appending the encoded bytes to the output stream is done by one thread at
+ * a time, and every record is appended as a whole.
+ * </p>
+ *
+ * <pre>
+ * MarcWriter writer = new ConcurrentMarcStreamWriter(new FileOutputStream(&quot;file.mrc&quot;));
+ * // from any number of threads:
+ * writer.write(record);
+ * // once all threads are done:
+ * writer.close();
+ * </pre>
+ *
+ * <p>
+ * Records passed to {@link #write(Record)} appear in the output in the order
+ * in which their encoding completes. When the output has to follow a given
+ * order, for example the order in which the records were read, number the
+ * records from 0 and write them with {@link #write(long, Record)} instead. A
+ * record is then held back until all records with a lower number have been
+ * written. To bound the memory used by records that are held back, a thread
+ * writing a record that is more than <code>maxPending</code> records ahead
+ * of the output waits until the output has caught up. A thread should
+ * therefore write its own records in increasing order.
+ * </p>
+ *
+ * <p>
+ * The character converters supplied with MARC4J, such as
+ * <code>UnicodeToAnsel</code>, keep state while they convert and cannot be
+ * used by several threads at once. A converter set with
+ * {@link #setConverter(CharConverter)} is therefore used by one thread at a
+ * time. To convert on all threads in parallel, set a
+ * {@link ConverterFactory} instead, which creates a converter for each
+ * thread:
+ * </p>
+ *
+ * <pre>
+ * writer.setConverterFactory(new ConcurrentMarcStreamWriter.ConverterFactory() {
+ *     public CharConverter newConverter() {
+ *         return new UnicodeToAnsel();
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class ConcurrentMarcStreamWriter implements MarcWriter {
+
+    /**
+     * Creates the character converters of a writer, one for each thread that
+     * writes records.
+     */
+    public static interface ConverterFactory {
+
+        /**
+         * Returns a new character converter, which is only used by a single
+         * thread.
+         *
+         * @return CharConverter - the character converter
+         */
+        public CharConverter newConverter();
+
+    }
+
+    private OutputStream out;
+
+    private String encoding = "ISO8859_1";
+
+    private boolean allowOversizeEntry = false;
+
+    private int maxPending;
+
+    private volatile CharConverter converter = null;
+
+    private volatile ConverterFactory converterFactory = null;
+
+    private Object lock = new Object();
+
+    private long nextSequence = 0;
+
+    private Map pending = new HashMap();
+
+    private boolean closed = false;
+
+    private ThreadLocal encoders = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Encoder(encoding, allowOversizeEntry);
+        }
+    };
+
+    /**
+     * Constructs an instance with the specified output stream.
+     */
+    public ConcurrentMarcStreamWriter(OutputStream out) {
+        this(out, "ISO8859_1", false, 1024);
+    }
+
+    /**
+     * Constructs an instance with the specified output stream and character
+     * encoding.
+     */
+    public ConcurrentMarcStreamWriter(OutputStream out, String encoding) {
+        this(out, encoding, false, 1024);
+    }
+
+    /**
+     * Constructs an instance with the specified output stream and character
+     * encoding.
+     *
+     * @param out
+     *            the output stream
+     * @param encoding
+     *            the character encoding
+     * @param allowOversizeRecord
+     *            true to write records that exceed the limits of ISO 2709
+     * @param maxPending
+     *            the maximum number of records written with
+     *            {@link #write(long, Record)} that are held back waiting for
+     *            records with a lower number
+     */
+    public ConcurrentMarcStreamWriter(OutputStream out, String encoding,
+            boolean allowOversizeRecord, int maxPending) {
+        if (maxPending < 1)
+            throw new IllegalArgumentException("maxPending must be at least 1");
+        this.out = out;
+        this.encoding = encoding;
+        this.allowOversizeEntry = allowOversizeRecord;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Returns the character converter.
+     *
+     * @return CharConverter the character converter
+     */
+    public CharConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Sets the character converter, which is shared by all threads and is
+     * used by one thread at a time. Replaces the converter factory.
+     *
+     * @param converter
+     *            the character converter
+     */
+    public void setConverter(CharConverter converter) {
+        this.converterFactory = null;
+        this.converter = converter;
+    }
+
+    /**
+     * Returns the converter factory.
+     *
+     * @return ConverterFactory the converter factory
+     */
+    public ConverterFactory getConverterFactory() {
+        return converterFactory;
+    }
+
+    /**
+     * Sets the converter factory, which creates a character converter for
+     * each thread that writes records. Replaces the character converter.
+     *
+     * @param converterFactory
+     *            the converter factory
+     */
+    public void setConverterFactory(ConverterFactory converterFactory) {
+        this.converter = null;
+        this.converterFactory = converterFactory;
+    }
+
+    /**
+     * Writes a <code>Record</code> object to the writer.
+     *
+     * <p>
+     * The record is encoded on the calling thread and appended to the output
+     * as soon as it is encoded.
+     * </p>
+     *
+     * @param record -
+     *            the <code>Record</code> object
+     */
+    public void write(Record record) {
+        Encoder encoder = encode(record);
+        synchronized (lock) {
+            checkOpen();
+            encoder.writeTo(out);
+        }
+    }
+
+    /**
+     * Writes a <code>Record</code> object with the given sequence number to
+     * the writer.
+     *
+     * <p>
+     * The record is encoded on the calling thread and appended to the output
+     * after the records with all lower sequence numbers, starting from 0.
+     * Every sequence number has to be written exactly once, and records
+     * written with {@link #write(Record)} in the meantime are appended
+     * between them in no particular order. When the record cannot be
+     * encoded, its sequence number counts as written and the exception is
+     * thrown after the records that were waiting for it have been appended.
+     * </p>
+     *
+     * @param sequence
+     *            the position of the record in the output, starting from 0
+     * @param record -
+     *            the <code>Record</code> object
+     */
+    public void write(long sequence, Record record) {
+        Encoder encoder = null;
+        MarcException error = null;
+        try {
+            encoder = encode(record);
+        } catch (MarcException e) {
+            // the sequence number is used up, so later records are not
+            // held back forever
+            error = e;
+        }
+        synchronized (lock) {
+            checkOpen();
+            if (sequence < nextSequence || pending.containsKey(Long.valueOf(sequence)))
+                throw new MarcException("sequence number " + sequence + " already written");
+            while (sequence >= nextSequence + maxPending) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MarcException("interrupted while waiting to write record", e);
+                }
+                checkOpen();
+            }
+            byte[] bytes = (encoder == null) ? new byte[0] : null;
+            if (sequence != nextSequence) {
+                pending.put(Long.valueOf(sequence), (bytes == null) ? encoder.toByteArray() : bytes);
+            } else {
+                if (bytes == null)
+                    encoder.writeTo(out);
+                nextSequence++;
+                while ((bytes = (byte[]) pending.remove(Long.valueOf(nextSequence))) != null) {
+                    try {
+                        out.write(bytes);
+                    } catch (IOException e) {
+                        throw new MarcException("IO Error occured while writing record", e);
+                    }
+                    nextSequence++;
+                }
+                lock.notifyAll();
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Closes the writer.
+     *
+     * <p>
+     * Throws a <code>MarcException</code> after closing the output stream
+     * when records written with {@link #write(long, Record)} are still held
+     * back because a record with a lower sequence number was never written.
+     * </p>
+     */
+    public void close() {
+        int missing;
+        synchronized (lock) {
+            closed = true;
+            missing = pending.size();
+            pending.clear();
+            lock.notifyAll();
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new MarcException("IO Error occured on close", e);
+            }
+        }
+        if (missing > 0)
+            throw new MarcException(missing + " records were not written, record "
+                    + nextSequence + " is missing");
+    }
+
+    private Encoder encode(Record record) {
+        Encoder encoder = (Encoder) encoders.get();
+        encoder.encode(record, encoder.getConverter(converterFactory, converter));
+        return encoder;
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new MarcException("writer is closed");
+    }
+
+    /**
+     * Encodes records for a single thread into a buffer that is reused for
+     * every record.
+     */
+    static class Encoder {
+
+        private Buffer buffer = new Buffer();
+
+        private MarcStreamWriter writer;
+
+        private ConverterFactory factory;
+
+        private CharConverter shared;
+
+        private CharConverter converter;
+
+        Encoder(String encoding, boolean allowOversizeRecord) {
+            writer = new MarcStreamWriter(buffer, encoding, allowOversizeRecord);
+        }
+
+        /**
+         * Returns the converter of this thread: a converter created by the
+         * factory, or the shared converter used by one thread at a time.
+         */
+        CharConverter getConverter(ConverterFactory factory, CharConverter shared) {
+            if (factory != null) {
+                if (factory != this.factory) {
+                    this.factory = factory;
+                    this.shared = null;
+                    converter = factory.newConverter();
+                }
+            } else if (shared != this.shared || this.factory != null) {
+                this.factory = null;
+                this.shared = shared;
+                converter = (shared == null) ? null : new SynchronizedConverter(shared);
+            }
+            return converter;
+        }
+
+        void encode(Record record, CharConverter converter) {
+            buffer.reset();
+            writer.setConverter(converter);
+            writer.write(record);
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+
+        void writeTo(OutputStream out) {
+            try {
+                out.write(buffer.getBuffer(), 0, buffer.size());
+            } catch (IOException e) {
+                throw new MarcException("IO Error occured while writing record", e);
+            }
+        }
+
+    }
+
+    /**
+     * Passes the conversions of one thread to a converter that is shared by
+     * all threads, one conversion at a time.
+     */
+    static class SynchronizedConverter extends CharConverter {
+
+        private CharConverter converter;
+
+        SynchronizedConverter(CharConverter converter) {
+            this.converter = converter;
+        }
+
+        public String convert(char[] dataElement) {
+            synchronized (converter) {
+                return converter.convert(dataElement);
+            }
+        }
+
+        public String convert(byte[] dataElement, int offset, int length) {
+            synchronized (converter) {
+                return converter.convert(dataElement, offset, length);
+            }
+        }
+
+    }
+
+    /**
+     * A <code>ByteArrayOutputStream</code> that gives access to its buffer,
+     * so an encoded record can be written without copying it.
+     */
+    static class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(8192);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+
+    }
+
+}
@@ -0,0 +1,268 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+/**
+ * An iterator over a file of MARC records in ISO 2709 format that reads the
+ * records directly from a memory-mapped view of the file.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * MappedMarcFileReader reader = new MappedMarcFileReader(new File(&quot;file.mrc&quot;));
+ * while (reader.hasNext()) {
+ *     Record record = reader.next();
+ *     // Process record
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * <p>
+ * Instead of copying every byte through a <code>BufferedInputStream</code>
+ * and a <code>DataInputStream</code>, the reader maps a window of the file
+ * into memory and uses the record length in the leader to jump from one
+ * record to the next, so the operating system page cache serves the data.
+ * Files larger than the window size (and larger than 2 GB) are handled by
+ * mapping the next window when a record crosses the end of the current one.
+ * Each record is copied once, with a single bulk transfer, from the mapped
+ * window into a buffer that is reused for every record and decoded the same
+ * way as by {@link MarcStreamReader}.
+ * </p>
+ *
+ * <p>
+ * When no encoding is given as an constructor argument the parser tries to
+ * resolve the encoding by looking at the character coding scheme (leader
+ * position 9) in MARC21 records. For UNIMARC records this position is not
+ * defined.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ *
+ */
+public class MappedMarcFileReader implements MarcReader {
+
+    /** The default size of the mapped window, 64 MB */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private FileChannel channel;
+
+    private boolean closeChannel;
+
+    private long fileSize;
+
+    private int windowSize;
+
+    private MappedByteBuffer window = null;
+
+    private long windowStart = 0;
+
+    private long position = 0;
+
+    private MarcRecordParser parser;
+
+    private byte[] buffer = new byte[4096];
+
+    /**
+     * Constructs an instance that reads the given file.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedMarcFileReader(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Constructs an instance that reads the given file using the given
+     * encoding.
+     *
+     * @param file the file to read
+     * @param encoding the encoding of the data elements
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedMarcFileReader(File file, String encoding) throws IOException {
+        this(new FileInputStream(file).getChannel(), encoding, DEFAULT_WINDOW_SIZE);
+        closeChannel = true;
+    }
+
+    /**
+     * Constructs an instance that reads the records from the current position
+     * of the given channel up to the end of the channel.
+     *
+     * <p>
+     * The channel is not closed by {@link #close()}.
+     * </p>
+     *
+     * @param channel the channel to read
+     * @throws IOException if the size or position of the channel cannot be
+     *             determined
+     */
+    public MappedMarcFileReader(FileChannel channel) throws IOException {
+        this(channel, null, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs an instance that reads the records from the current position
+     * of the given channel up to the end of the channel, using the given
+     * encoding and mapping at most <code>windowSize</code> bytes at a time.
+     *
+     * <p>
+     * The window size has to be at least as large as the largest record
+     * (99999 bytes for records that follow the standard), larger records are
+     * handled by mapping a larger window for that record. The channel is not
+     * closed by {@link #close()}.
+     * </p>
+     *
+     * @param channel the channel to read
+     * @param encoding the encoding of the data elements or <code>null</code>
+     * @param windowSize the number of bytes to map at a time
+     * @throws IOException if the size or position of the channel cannot be
+     *             determined
+     */
+    public MappedMarcFileReader(FileChannel channel, String encoding, int windowSize) throws IOException {
+        if (windowSize < MarcRecordParser.LEADER_LENGTH)
+            throw new IllegalArgumentException("window size too small: " + windowSize);
+        this.channel = channel;
+        this.windowSize = windowSize;
+        this.fileSize = channel.size();
+        this.position = channel.position();
+        this.closeChannel = false;
+        parser = new MarcRecordParser(MarcFactory.newInstance(), encoding);
+    }
+
+    /**
+     * Sets whether the records returned by {@link #next()} decode their
+     * fields on demand.
+     *
+     * <p>
+     * When set to true, only the leader and the directory are decoded while
+     * reading and each record is returned as a
+     * {@link org.marc4j.marc.impl.LazyRecordImpl} that decodes and converts a
+     * field the first time it is requested. This saves most of the work for
+     * applications that only look at a few fields of each record. Errors in
+     * the data of a field are then reported when the field is accessed. The
+     * default is false.
+     * </p>
+     *
+     * @param lazy true to decode fields on demand
+     */
+    public void setLazyDecoding(boolean lazy) {
+        parser.setLazy(lazy);
+    }
+
+    /**
+     * Sets the filter that selects the fields, and optionally the subfields,
+     * that are decoded. Directory entries of other fields are skipped without
+     * creating objects for them or converting their data. Set to
+     * <code>null</code> (the default) to decode all fields.
+     *
+     * @param filter the filter or <code>null</code>
+     */
+    public void setTagFilter(TagFilter filter) {
+        parser.setTagFilter(filter);
+    }
+
+    /**
+     * Returns true if the iteration has more records, false otherwise.
+     */
+    public boolean hasNext() {
+        return position < fileSize;
+    }
+
+    /**
+     * Returns the next record in the iteration.
+     *
+     * @return Record - the record object
+     */
+    public Record next() {
+        try {
+            map(MarcRecordParser.LEADER_LENGTH);
+            window.position((int) (position - windowStart));
+            window.get(buffer, 0, MarcRecordParser.LEADER_LENGTH);
+
+            int recordLength = MarcRecordParser.parseRecordLength(buffer, 0);
+            ensureCapacity(recordLength);
+            map(recordLength);
+            window.position((int) (position - windowStart) + MarcRecordParser.LEADER_LENGTH);
+            window.get(buffer, MarcRecordParser.LEADER_LENGTH,
+                    recordLength - MarcRecordParser.LEADER_LENGTH);
+            position += recordLength;
+
+            return parser.parse(buffer, recordLength);
+        } catch (IOException e) {
+            throw new MarcException("an error occured reading input", e);
+        }
+    }
+
+    /**
+     * Releases the reference to the mapped window and closes the underlying
+     * channel when it was opened by this reader.
+     *
+     * <p>
+     * The mapped memory itself is released by the garbage collector.
+     * </p>
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    public void close() throws IOException {
+        window = null;
+        if (closeChannel)
+            channel.close();
+    }
+
+    /**
+     * Makes sure the current window covers the next <code>length</code>
+     * bytes from the current position, mapping a new window when it does not.
+     */
+    private void map(int length) throws IOException {
+        if (position + length > fileSize)
+            throw new MarcException("Premature end of file encountered");
+        if (window != null && position >= windowStart
+                && position + length <= windowStart + window.capacity())
+            return;
+        long size = Math.min(Math.max(windowSize, length), fileSize - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        windowStart = position;
+    }
+
+    /**
+     * Grows the record buffer so it can hold at least <code>length</code>
+     * bytes, keeping the leader that has already been read.
+     */
+    private void ensureCapacity(int length) {
+        if (length <= buffer.length)
+            return;
+        byte[] newBuffer = new byte[Math.max(length, buffer.length * 2)];
+        System.arraycopy(buffer, 0, newBuffer, 0, MarcRecordParser.LEADER_LENGTH);
+        buffer = newBuffer;
+    }
+
+}
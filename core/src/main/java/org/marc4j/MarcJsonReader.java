@@ -10,11 +10,13 @@ import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 import org.marc4j.marc.Subfield;
 import org.marc4j.util.JsonParser;
+import org.marc4j.util.JsonTokenizer;
 
 public class MarcJsonReader implements MarcReader
 {
     MarcFactory factory;
     JsonParser parser;
+    JsonTokenizer tokenizer;
     int parserLevel = 0;
     public final static int NO_ARRAY = 0;
     // These are used in MARC-in-JSON
@@ -27,8 +29,33 @@ public class MarcJsonReader implements MarcReader
     
     public MarcJsonReader(InputStream is)
     {
-        parser = new JsonParser(JsonParser.OPT_MULTILINE_STRINGS | JsonParser.OPT_INTERN_KEYWORDS | JsonParser.OPT_UNQUOTED_KEYWORDS | JsonParser.OPT_SINGLE_QUOTE_STRINGS);
-        parser.setInput("MarcInput", new InputStreamReader(is), false);
+        this(is, false);
+    }
+
+    /**
+     * Creates a reader for MARC-in-JSON or MARC-JSON input. With
+     * <code>strict</code> set to true the input is read with a
+     * {@link JsonTokenizer}, which is considerably faster but accepts only
+     * well-formed UTF-8 encoded JSON, such as the output of
+     * {@link MarcJsonWriter} with quoted labels. Otherwise the lenient
+     * {@link JsonParser} is used, which also reads hand-edited files with
+     * unquoted labels, single quoted strings, comments and strings that span
+     * several lines.
+     *
+     * @param is the input stream
+     * @param strict true to use the strict tokenizer
+     */
+    public MarcJsonReader(InputStream is, boolean strict)
+    {
+        if (strict)
+        {
+            tokenizer = new JsonTokenizer(is);
+        }
+        else
+        {
+            parser = new JsonParser(JsonParser.OPT_MULTILINE_STRINGS | JsonParser.OPT_INTERN_KEYWORDS | JsonParser.OPT_UNQUOTED_KEYWORDS | JsonParser.OPT_SINGLE_QUOTE_STRINGS);
+            parser.setInput("MarcInput", new InputStreamReader(is), false);
+        }
 //        if(System.getProperty("org.marc4j.marc.MarcFactory") == null)
 //        {
 //            System.setProperty("org.marc4j.marc.MarcFactory", "org.marc4j.marc.impl.NoSortMarcFactoryImpl");
@@ -36,6 +63,15 @@ public class MarcJsonReader implements MarcReader
         factory = MarcFactory.newInstance();        
     }
     
+    /**
+     * Creates a reader for the records read by the given tokenizer.
+     */
+    MarcJsonReader(JsonTokenizer tokenizer, MarcFactory factory)
+    {
+        this.tokenizer = tokenizer;
+        this.factory = factory;
+    }
+
     public MarcJsonReader(Reader in)
     {
         parser = new JsonParser(0);
@@ -49,10 +85,10 @@ public class MarcJsonReader implements MarcReader
     
     public boolean hasNext()
     {
-        int code = parser.getEventCode();
+        int code = eventCode();
         if (code == 0 ||code == JsonParser.EVT_OBJECT_ENDED)
         {
-            code = parser.next();
+            code = nextEvent();
         }
         if (code == JsonParser.EVT_OBJECT_BEGIN) return(true);
         if (code == JsonParser.EVT_INPUT_ENDED)  return(false);
@@ -61,7 +97,7 @@ public class MarcJsonReader implements MarcReader
 
     public Record next()
     {
-        int code = parser.getEventCode();
+        int code = eventCode();
         Record record = null;
         ControlField cf = null;
         DataField df = null;
@@ -69,7 +105,7 @@ public class MarcJsonReader implements MarcReader
         int inArray = NO_ARRAY;
         while (true)
         {
-            String mname = parser.getMemberName();
+            String mname = memberName();
             switch (code) {
                 case JsonParser.EVT_OBJECT_BEGIN: 
                 {
@@ -77,7 +113,7 @@ public class MarcJsonReader implements MarcReader
                     {
                         record = factory.newRecord();
                     }
-                    else if (inArray == FIELDS_ARRAY && mname.matches("[A-Z0-9][A-Z0-9][A-Z0-9]"))
+                    else if (inArray == FIELDS_ARRAY && isTag(mname))
                     {
                         df = factory.newDataField();
                         df.setTag(mname);
@@ -92,12 +128,12 @@ public class MarcJsonReader implements MarcReader
                     {
                         return(record);
                     }
-                    else if (inArray == FIELDS_ARRAY && mname.matches("[A-Z0-9][A-Z0-9][A-Z0-9]"))
+                    else if (inArray == FIELDS_ARRAY && isTag(mname))
                     {
                         record.addVariableField(df);
                         df = null;
                     }
-                    else if (inArray == DATAFIELD_ARRAY && mname.matches("datafield"))
+                    else if (inArray == DATAFIELD_ARRAY && mname.equals("datafield"))
                     {
                         record.addVariableField(df);
                         df = null;
@@ -155,27 +191,19 @@ public class MarcJsonReader implements MarcReader
                 break;
                 case JsonParser.EVT_OBJECT_MEMBER:
                 {
-                    String value = parser.getMemberValue();
-                    if (JsonParser.isQuoted(value))
-                    {
-                        value = JsonParser.stripQuotes(value);
-                    }
-                    value = value.replaceAll("⁄", "/");
-                    value = value.replaceAll("\r?\n[ \t]*(\\]|\\[)", "$1");
-                    value = value.replaceAll("(\\[|\\])\r?\n[ \t]*", "$1");
-                    value = value.replaceAll("\r?\n[ \t]*", " ");
+                    String value = normalize(memberValue());
                     if (mname.equals("ind1"))  df.setIndicator1(value.length() >= 1 ? value.charAt(0): ' ');
                     else if (mname.equals("ind2"))  df.setIndicator2(value.length() >= 1 ? value.charAt(0): ' ');
                     else if (mname.equals("leader"))  
                     {
                         record.setLeader(factory.newLeader(value));
                     }
-                    else if (inArray == FIELDS_ARRAY && mname.matches("[A-Z0-9][A-Z0-9][A-Z0-9]"))
+                    else if (inArray == FIELDS_ARRAY && isTag(mname))
                     {
                         cf = factory.newControlField(mname, value);
                         record.addVariableField(cf);
                     }
-                    else if (inArray == SUBFIELDS_ARRAY && mname.matches("[a-z0-9]"))
+                    else if (inArray == SUBFIELDS_ARRAY && isSubfieldCode(mname))
                     {
                         sf = factory.newSubfield(mname.charAt(0), value);
                         df.addSubfield(sf);
@@ -218,10 +246,97 @@ public class MarcJsonReader implements MarcReader
                     throw new MarcException("Premature end of input in JSON file");
                 }
             }
-            code = parser.next();
+            code = nextEvent();
         }
         
         //return record;
     }
 
+    private int eventCode()
+    {
+        return (tokenizer != null) ? tokenizer.getEventCode() : parser.getEventCode();
+    }
+
+    private int nextEvent()
+    {
+        return (tokenizer != null) ? tokenizer.next() : parser.next();
+    }
+
+    private String memberName()
+    {
+        return (tokenizer != null) ? tokenizer.getMemberName() : parser.getMemberName();
+    }
+
+    private String memberValue()
+    {
+        if (tokenizer != null) return(tokenizer.getMemberValue());
+        String value = parser.getMemberValue();
+        if (JsonParser.isQuoted(value))
+        {
+            value = JsonParser.stripQuotes(value);
+        }
+        return(value);
+    }
+
+    /**
+     * Returns true if the member name consists of three upper case letters or
+     * digits, like a tag.
+     */
+    static boolean isTag(String name)
+    {
+        return name.length() == 3 && isTagChar(name.charAt(0))
+                && isTagChar(name.charAt(1)) && isTagChar(name.charAt(2));
+    }
+
+    private static boolean isTagChar(char c)
+    {
+        return (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Returns true if the member name is a single lower case letter or digit,
+     * like a subfield code.
+     */
+    static boolean isSubfieldCode(String name)
+    {
+        if (name.length() != 1) return(false);
+        char c = name.charAt(0);
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Replaces fraction slashes by slashes and folds the lines of a value
+     * that was split over several lines: a line break and the indentation
+     * that follows it are removed next to a square bracket and replaced by a
+     * single space elsewhere. Values without a line break are only scanned
+     * once.
+     */
+    static String normalize(String value)
+    {
+        if (value.indexOf('\u2044') >= 0)
+            value = value.replace('\u2044', '/');
+        int nl = value.indexOf('\n');
+        if (nl < 0)
+            return(value);
+        int length = value.length();
+        StringBuffer sb = new StringBuffer(length);
+        int start = 0;
+        while (nl >= 0)
+        {
+            int breakStart = (nl > start && value.charAt(nl - 1) == '\r') ? nl - 1 : nl;
+            int end = nl + 1;
+            while (end < length && (value.charAt(end) == ' ' || value.charAt(end) == '\t'))
+                end++;
+            sb.append(value, start, breakStart);
+            char prev = (breakStart > 0) ? value.charAt(breakStart - 1) : 0;
+            char next = (end < length) ? value.charAt(end) : 0;
+            if (next != '[' && next != ']' && prev != '[' && prev != ']')
+                sb.append(' ');
+            start = end;
+            nl = value.indexOf('\n', start);
+        }
+        sb.append(value, start, length);
+        return(sb.toString());
+    }
+
 }
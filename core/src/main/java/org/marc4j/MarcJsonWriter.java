@@ -12,11 +12,31 @@ import org.marc4j.marc.DataField;
 import org.marc4j.marc.Record;
 import org.marc4j.marc.Subfield;
 
+/**
+ * Class for writing MARC record objects in one of two JSON layouts,
+ * <code>MARC_IN_JSON</code> or <code>MARC_JSON</code>.
+ *
+ * <p>
+ * Each record is encoded as UTF-8 directly into a byte buffer that is reused
+ * for every record, without building an intermediate <code>String</code>.
+ * The buffer is written to the output stream when it fills up and whenever
+ * the output stream is flushed. By default the output stream is flushed
+ * after every record, use {@link #setFlushInterval(int)} to flush less often
+ * or only on {@link #close()}.
+ * </p>
+ */
 public class MarcJsonWriter implements MarcWriter
 {
     public final static int MARC_IN_JSON = 0;
     public final static int MARC_JSON = 1;
-    
+    /**
+     * Newline-delimited MARC-in-JSON: every record is written as compact
+     * MARC-in-JSON on a line of its own, without indentation. Each line can
+     * be parsed on its own, for example by {@link ParallelMarcJsonReader}.
+     */
+    public final static int NDJSON = 2;
+
+    private static final int BUFFER_SIZE = 8192;
 
     /**
      * Character encoding. Default is UTF-8.
@@ -28,286 +48,552 @@ public class MarcJsonWriter implements MarcWriter
     private boolean indent = false;
     private boolean escapeSlash = false;
     private boolean quoteLabels = true;
-    private String ql = "\"";
-    
+    private int flushInterval = 1;
+    private int unflushed = 0;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int count = 0;
+    // true if a subclass formats the records with its own toMarcJson or
+    // toMarcInJson, which write() then calls instead of writing to the
+    // buffer directly
+    private final boolean overridesFormat = overridesFormat(getClass());
+
     public MarcJsonWriter(OutputStream os)
     {
         this.os = os;
     }
-    
+
     public MarcJsonWriter(OutputStream os, CharConverter conv)
     {
         this.os = os;
         setConverter(conv);
     }
-    
+
     public MarcJsonWriter(OutputStream os, int jsonFormat)
     {
         this.os = os;
         useJsonFormat = jsonFormat;
         if (useJsonFormat == MARC_JSON) this.setQuoteLabels(false);
     }
-    
+
     public MarcJsonWriter(OutputStream os, CharConverter conv, int jsonFormat)
     {
+        this.os = os;
         setConverter(conv);
         useJsonFormat = jsonFormat;
         if (useJsonFormat == MARC_JSON) this.setQuoteLabels(false);
     }
-    
+
+    /**
+     * Writes the buffered records and flushes the output stream. The output
+     * stream is not closed.
+     */
     public void close()
     {
-        // TODO Auto-generated method stub
-        
+        try
+        {
+            flushBuffer();
+            os.flush();
+            unflushed = 0;
+        }
+        catch (IOException e)
+        {
+            throw new MarcException("IO Error occured while writing record", e);
+        }
     }
-    
+
     protected String toMarcJson(Record record)
     {
-        StringBuffer buf = new StringBuffer();
-        buf.append("{");
-        if (indent) buf.append("\n    ");
-        buf.append(ql + "leader" + ql + ":\"").append(record.getLeader().toString()).append("\",");
-        if (indent) buf.append("\n    ");
-        buf.append(ql + "controlfield" + ql + ":");
-        if (indent) buf.append("\n    ");
-        buf.append("[");
+        int mark = count;
+        writeMarcJson(record);
+        return(toString(mark));
+    }
+
+    protected String toMarcInJson(Record record)
+    {
+        int mark = count;
+        writeMarcInJson(record, indent && useJsonFormat != NDJSON);
+        return(toString(mark));
+    }
+
+    private void writeMarcJson(Record record)
+    {
+        append("{");
+        if (indent) append("\n    ");
+        label("leader");
+        append(":\"");
+        appendRaw(record.getLeader().toString());
+        append("\",");
+        if (indent) append("\n    ");
+        label("controlfield");
+        append(":");
+        if (indent) append("\n    ");
+        append("[");
         boolean firstField = true;
         List<?> controlfields = record.getControlFields();
         Iterator<?> itercf = controlfields.iterator();
         while (itercf.hasNext())
         {
             ControlField cf = (ControlField)itercf.next();
-            if (!firstField) buf.append(","); 
+            if (!firstField) append(",");
             else             firstField = false;
-            if (indent) buf.append("\n        ");
-            buf.append("{ " + ql + "tag" + ql + " : \"" + cf.getTag() + "\", "+ ql + "data" + ql + " : ").append("\"" + unicodeEscape(cf.getData()) + "\" }");
+            if (indent) append("\n        ");
+            append("{ ");
+            label("tag");
+            append(" : \"");
+            appendRaw(cf.getTag());
+            append("\", ");
+            label("data");
+            append(" : \"");
+            appendEscaped(cf.getData());
+            append("\" }");
         }
-        if (indent) buf.append("\n    ");
-        buf.append("]");
-        if (indent) buf.append("\n    ");
-        buf.append("datafield :");
-        if (indent) buf.append("\n    ");
-        buf.append("[");
+        if (indent) append("\n    ");
+        append("]");
+        if (indent) append("\n    ");
+        append("datafield :");
+        if (indent) append("\n    ");
+        append("[");
         firstField = true;
         List<?> datafields = record.getDataFields();
         Iterator<?> iterdf = datafields.iterator();
         while (iterdf.hasNext())
         {
             DataField df = (DataField)iterdf.next();
-            if (!firstField) buf.append(","); 
+            if (!firstField) append(",");
             else             firstField = false;
-            if (indent) buf.append("\n        ");
-            buf.append("{");
-            if (indent) buf.append("\n            ");
-            buf.append(ql + "tag" + ql + " : \""+df.getTag()+"\", "+ ql + "ind" + ql + " : \"" + df.getIndicator1() + df.getIndicator2()+ "\",");
-            if (indent) buf.append("\n            ");
-            buf.append(ql + "subfield" + ql + " :");
-            if (indent) buf.append("\n            ");
-            buf.append("[");
+            if (indent) append("\n        ");
+            append("{");
+            if (indent) append("\n            ");
+            label("tag");
+            append(" : \"");
+            appendRaw(df.getTag());
+            append("\", ");
+            label("ind");
+            append(" : \"");
+            appendRaw(df.getIndicator1());
+            appendRaw(df.getIndicator2());
+            append("\",");
+            if (indent) append("\n            ");
+            label("subfield");
+            append(" :");
+            if (indent) append("\n            ");
+            append("[");
             boolean firstSubfield = true;
             List<?> subfields = df.getSubfields();
             Iterator<?> itersf = subfields.iterator();
             while (itersf.hasNext())
             {
                 Subfield sf = (Subfield)itersf.next();
-                if (!firstSubfield)  buf.append(","); 
+                if (!firstSubfield)  append(",");
                 else             firstSubfield = false;
-                if (indent) buf.append("\n                ");
-                buf.append("{ " + ql + "code" + ql + " : \"" + sf.getCode() + "\", " + ql + "data" + ql + " : \"" + unicodeEscape(sf.getData()) + "\" }");
+                if (indent) append("\n                ");
+                append("{ ");
+                label("code");
+                append(" : \"");
+                appendRaw(sf.getCode());
+                append("\", ");
+                label("data");
+                append(" : \"");
+                appendEscaped(sf.getData());
+                append("\" }");
             }
-            if (indent) buf.append("\n            ");
-            buf.append("]");
-            if (indent) buf.append("\n        ");
-            buf.append("}");
+            if (indent) append("\n            ");
+            append("]");
+            if (indent) append("\n        ");
+            append("}");
         }
-        if (indent) buf.append("\n    ");
-        buf.append("]");
-        if (indent) buf.append("\n");
-        buf.append("}\n");
-        return(buf.toString());
-
-    }
-    
-    protected String toMarcInJson(Record record) 
-    {
-        StringBuffer buf = new StringBuffer();
-        buf.append("{");
-        if (indent) buf.append("\n    ");
-        buf.append(ql + "leader" + ql + ":\"").append(record.getLeader().toString()).append("\",");
-        if (indent) buf.append("\n    ");
-        buf.append(ql + "fields" + ql + ":");
-        if (indent) buf.append("\n    ");
-        buf.append("[");
+        if (indent) append("\n    ");
+        append("]");
+        if (indent) append("\n");
+        append("}\n");
+    }
+
+    private void writeMarcInJson(Record record, boolean indent)
+    {
+        append("{");
+        if (indent) append("\n    ");
+        label("leader");
+        append(":\"");
+        appendRaw(record.getLeader().toString());
+        append("\",");
+        if (indent) append("\n    ");
+        label("fields");
+        append(":");
+        if (indent) append("\n    ");
+        append("[");
         boolean firstField = true;
         List<?> controlfields = record.getControlFields();
         Iterator<?> itercf = controlfields.iterator();
         while (itercf.hasNext())
         {
             ControlField cf = (ControlField)itercf.next();
-            if (!firstField) buf.append(","); 
+            if (!firstField) append(",");
             else             firstField = false;
-            if (indent) buf.append("\n        ");
-            buf.append("{");
-            if (indent) buf.append("\n            ");
-            buf.append(ql + cf.getTag() + ql + ":").append("\"" + unicodeEscape(cf.getData()) + "\"");
-            if (indent) buf.append("\n        ");
-            buf.append("}");
+            if (indent) append("\n        ");
+            append("{");
+            if (indent) append("\n            ");
+            label(cf.getTag());
+            append(":\"");
+            appendEscaped(cf.getData());
+            append("\"");
+            if (indent) append("\n        ");
+            append("}");
         }
         List<?> datafields = record.getDataFields();
         Iterator<?> iterdf = datafields.iterator();
         while (iterdf.hasNext())
         {
             DataField df = (DataField)iterdf.next();
-            if (!firstField) buf.append(","); 
+            if (!firstField) append(",");
             else             firstField = false;
-            if (indent) buf.append("\n        ");
-            buf.append("{");
-            if (indent) buf.append("\n            ");
-            buf.append(ql + df.getTag()+ ql + ":");
-            if (indent) buf.append("\n                ");
-            buf.append("{");
-            buf.append(ql+ "subfields" + ql + ":");
-            if (indent) buf.append("\n                ");
-            buf.append("[");
+            if (indent) append("\n        ");
+            append("{");
+            if (indent) append("\n            ");
+            label(df.getTag());
+            append(":");
+            if (indent) append("\n                ");
+            append("{");
+            label("subfields");
+            append(":");
+            if (indent) append("\n                ");
+            append("[");
             boolean firstSubfield = true;
             List<?> subfields = df.getSubfields();
             Iterator<?> itersf = subfields.iterator();
             while (itersf.hasNext())
             {
                 Subfield sf = (Subfield)itersf.next();
-                if (!firstSubfield)  buf.append(","); 
+                if (!firstSubfield)  append(",");
                 else             firstSubfield = false;
-                if (indent) buf.append("\n                    ");
-                buf.append("{");
-                if (indent) buf.append("\n                        ");
-                buf.append(ql + sf.getCode() + ql+ ":\"" + unicodeEscape(sf.getData()) + "\"");
-                if (indent) buf.append("\n                    ");
-                buf.append("}");
+                if (indent) append("\n                    ");
+                append("{");
+                if (indent) append("\n                        ");
+                label(sf.getCode());
+                append(":\"");
+                appendEscaped(sf.getData());
+                append("\"");
+                if (indent) append("\n                    ");
+                append("}");
             }
-            if (indent) buf.append("\n                ");
-            buf.append("],");
-            if (indent) buf.append("\n                ");
-            buf.append(ql + "ind1" + ql + ":\"" + df.getIndicator1() + "\",");
-            if (indent) buf.append("\n                ");
-            buf.append(ql + "ind2" + ql + ":\"" + df.getIndicator2() + "\"");
-            if (indent) buf.append("\n            ");
-            buf.append("}");
-            if (indent) buf.append("\n        ");
-            buf.append("}");
+            if (indent) append("\n                ");
+            append("],");
+            if (indent) append("\n                ");
+            label("ind1");
+            append(":\"");
+            appendRaw(df.getIndicator1());
+            append("\",");
+            if (indent) append("\n                ");
+            label("ind2");
+            append(":\"");
+            appendRaw(df.getIndicator2());
+            append("\"");
+            if (indent) append("\n            ");
+            append("}");
+            if (indent) append("\n        ");
+            append("}");
         }
-        if (indent) buf.append("\n    ");
-        buf.append("]");
-        if (indent) buf.append("\n");
-        buf.append("}\n");
-        return(buf.toString());
+        if (indent) append("\n    ");
+        append("]");
+        if (indent) append("\n");
+        append("}\n");
+    }
+
+    /**
+     * Appends JSON punctuation and whitespace, which is always ASCII.
+     */
+    private void append(String s)
+    {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+            buf[count++] = (byte) s.charAt(i);
     }
 
+    /**
+     * Appends a label, quoted unless label quoting is turned off.
+     */
+    private void label(String name)
+    {
+        // newline-delimited output is always strict JSON
+        boolean quote = quoteLabels || useJsonFormat == NDJSON;
+        if (quote) append("\"");
+        appendRaw(name);
+        if (quote) append("\"");
+    }
 
-    private String unicodeEscape(String data)
+    private void label(char name)
+    {
+        boolean quote = quoteLabels || useJsonFormat == NDJSON;
+        if (quote) append("\"");
+        appendRaw(name);
+        if (quote) append("\"");
+    }
+
+    /**
+     * Appends a string as UTF-8 without escaping. A surrogate that is not part
+     * of a pair is written as a question mark.
+     */
+    private void appendRaw(String s)
+    {
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(4);
+                buf[count++] = (byte) (0xf0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (cp & 0x3f));
+            }
+            else appendRaw(c);
+        }
+    }
+
+    private void appendRaw(char c)
+    {
+        ensureCapacity(3);
+        if (c < 0x80)
+        {
+            buf[count++] = (byte) c;
+        }
+        else if (c < 0x800)
+        {
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        else if (c >= 0xd800 && c <= 0xdfff)
+        {
+            buf[count++] = (byte) '?';
+        }
+        else
+        {
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Appends the data after character conversion, escaping the characters
+     * that cannot appear in a JSON string as well as all characters above
+     * U+00FF.
+     */
+    private void appendEscaped(String data)
     {
         if (converter != null)
              data = converter.convert(data);
-        StringBuffer buffer = new StringBuffer();
-        for (int i = 0; i < data.length(); i++)
+        int length = data.length();
+        for (int i = 0; i < length; i++)
         {
             char c = data.charAt(i);
             switch (c)
             {
-                case '/': 
+                case '/':
                 {
-                    if (escapeSlash) buffer.append("\\/"); 
-                    else             buffer.append("/"); 
+                    if (escapeSlash) append("\\/");
+                    else             appendRaw(c);
                 }
                 break;
-                case '"': buffer.append("\\\""); break;
-                case '\\': buffer.append("\\\\"); break;
-                case '\b': buffer.append("\\b"); break;
-                case '\f': buffer.append("\\f"); break;
-                case '\n': buffer.append("\\n"); break;
-                case '\r': buffer.append("\\r"); break;
-                case '\t': buffer.append("\\t"); break;
-                default: 
+                case '"': append("\\\""); break;
+                case '\\': append("\\\\"); break;
+                case '\b': append("\\b"); break;
+                case '\f': append("\\f"); break;
+                case '\n': append("\\n"); break;
+                case '\r': append("\\r"); break;
+                case '\t': append("\\t"); break;
+                default:
                 {
                     if ((int) c > 0xff || (int) c < 0x1f)
                     {
-                        String val = "0000"+Integer.toHexString((int)(c));
-                        buffer.append("\\u"+ (val.substring(val.length()-4, val.length())) );
+                        ensureCapacity(6);
+                        buf[count++] = (byte) '\\';
+                        buf[count++] = (byte) 'u';
+                        buf[count++] = (byte) HEX[(c >> 12) & 0xf];
+                        buf[count++] = (byte) HEX[(c >> 8) & 0xf];
+                        buf[count++] = (byte) HEX[(c >> 4) & 0xf];
+                        buf[count++] = (byte) HEX[c & 0xf];
                     }
-                    else buffer.append(c); break;
+                    else appendRaw(c); break;
                 }
             }
         }
-        return(buffer.toString());
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (count + length > buf.length)
+        {
+            byte[] newBuf = new byte[Math.max(count + length, buf.length * 2)];
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            buf = newBuf;
+        }
+    }
+
+    /**
+     * Removes the bytes appended after <code>mark</code> from the buffer and
+     * returns them as a string.
+     */
+    private String toString(int mark)
+    {
+        try
+        {
+            return(new String(buf, mark, count - mark, "UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new MarcException(e.getMessage(), e);
+        }
+        finally
+        {
+            count = mark;
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (count > 0)
+            os.write(buf, 0, count);
+        count = 0;
+        if (buf.length > BUFFER_SIZE * 16)
+            buf = new byte[BUFFER_SIZE];
     }
 
     /**
      * Returns the character converter.
-     * 
+     *
      * @return CharConverter the character converter
      */
-    public CharConverter getConverter() 
+    public CharConverter getConverter()
     {
         return converter;
     }
 
     /**
      * Sets the character converter.
-     * 
+     *
      * @param converter
      *            the character converter
      */
-    public void setConverter(CharConverter converter) 
+    public void setConverter(CharConverter converter)
     {
         this.converter = converter;
     }
 
     /**
      * Returns true if indentation is active, false otherwise.
-     * 
+     *
      * @return boolean
      */
-    public boolean hasIndent() 
+    public boolean hasIndent()
     {
         return indent;
     }
 
     /**
      * Activates or deactivates indentation. Default value is false.
-     * 
+     *
      * @param indent
      */
-    public void setIndent(boolean indent) 
+    public void setIndent(boolean indent)
     {
         this.indent = indent;
     }
 
+    /**
+     * Returns the number of records after which the output stream is
+     * flushed.
+     *
+     * @return int - the flush interval, 0 if the output stream is only
+     *         flushed on close
+     */
+    public int getFlushInterval()
+    {
+        return flushInterval;
+    }
 
+    /**
+     * Sets the number of records after which the buffered records are written
+     * to the output stream and the output stream is flushed. The default is 1,
+     * which flushes after every record. With 0 the output stream is only
+     * flushed by {@link #close()}, and the buffer is written to it whenever it
+     * fills up.
+     *
+     * @param flushInterval
+     *            the number of records, or 0 to flush on close only
+     */
+    public void setFlushInterval(int flushInterval)
+    {
+        if (flushInterval < 0)
+            throw new IllegalArgumentException("flush interval must not be negative");
+        this.flushInterval = flushInterval;
+    }
 
     public void write(Record record)
     {
-        String recordAsJson = "";
-        if (useJsonFormat == MARC_IN_JSON)
+        if (overridesFormat)
+        {
+            if (useJsonFormat == MARC_JSON)
+                appendRaw(toMarcJson(record));
+            else if (useJsonFormat == MARC_IN_JSON || useJsonFormat == NDJSON)
+                appendRaw(toMarcInJson(record));
+        }
+        else if (useJsonFormat == MARC_IN_JSON)
         {
-            recordAsJson = toMarcInJson(record);
+            writeMarcInJson(record, indent);
+        }
+        else if (useJsonFormat == NDJSON)
+        {
+            writeMarcInJson(record, false);
         }
         else if (useJsonFormat == MARC_JSON)
         {
-            recordAsJson = toMarcJson(record);
+            writeMarcJson(record);
         }
         try
         {
-            os.write(recordAsJson.getBytes("UTF-8"));
-            os.flush();
+            unflushed++;
+            if (flushInterval > 0 && unflushed >= flushInterval)
+            {
+                flushBuffer();
+                os.flush();
+                unflushed = 0;
+            }
+            else if (count >= BUFFER_SIZE)
+            {
+                flushBuffer();
+            }
         }
-        catch (UnsupportedEncodingException e)
+        catch (IOException e)
         {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new MarcException("IO Error occured while writing record", e);
         }
-        catch (IOException e)
+    }
+
+    private static boolean overridesFormat(Class<?> c)
+    {
+        for (; c != MarcJsonWriter.class; c = c.getSuperclass())
+        {
+            if (declares(c, "toMarcJson") || declares(c, "toMarcInJson"))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean declares(Class<?> c, String name)
+    {
+        try
+        {
+            c.getDeclaredMethod(name, new Class[] { Record.class });
+            return true;
+        }
+        catch (NoSuchMethodException e)
         {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            return false;
         }
     }
 
@@ -329,7 +615,6 @@ public class MarcJsonWriter implements MarcWriter
     public void setQuoteLabels(boolean quoteLabels)
     {
         this.quoteLabels = quoteLabels;
-        ql = (quoteLabels) ? "\"" : "";
     }
 
     public boolean isIndent()
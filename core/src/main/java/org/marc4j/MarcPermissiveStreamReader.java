@@ -138,6 +138,9 @@ public class MarcPermissiveStreamReader implements MarcReader {
     private String conversionCheck3 = null;
 
     private ErrorHandler errors;
+
+    private TagFilter filter = null;
+
     static String validSubfieldCodes = "abcdefghijklmnopqrstuvwxyz0123456789";
    
     /**
@@ -241,6 +244,17 @@ public class MarcPermissiveStreamReader implements MarcReader {
         this.errors = errors;
     }
     
+    /**
+     * Sets the filter that selects the fields, and optionally the subfields,
+     * that are decoded. Fields and subfields that are not accepted are skipped 
+     * without reading them into a separate buffer or converting their data.
+     * Set to <code>null</code> (the default) to decode all fields.
+     */
+    public void setTagFilter(TagFilter filter)
+    {
+        this.filter = filter;
+    }
+    
     /**
      * Returns true if the iteration has more records, false otherwise.
      */
@@ -816,6 +830,11 @@ public class MarcPermissiveStreamReader implements MarcReader {
                     }
                 }
                 totalLength += lengths[i];
+                if (filter != null && !filter.acceptsTag(tags[i]))
+                {
+                    inputrec.skipBytes(lengths[i]);
+                    continue;
+                }
                 if (isControlField(tags[i])) 
                 {
                     byteArray = new byte[lengths[i] - 1];
@@ -1080,6 +1099,11 @@ public class MarcPermissiveStreamReader implements MarcReader {
                     }
                     throw new IOException("Subfield of zero length encountered");
                 }
+                if (filter != null && !filter.acceptsSubfield(tag, (char) code))
+                {
+                    bais.skip(size);
+                    continue;
+                }
                 data = new byte[size];
                 bais.read(data);
                 subfield = factory.newSubfield();
@@ -1598,8 +1622,8 @@ public class MarcPermissiveStreamReader implements MarcReader {
     {
         if (converterUnimarc == null) converterUnimarc = new Iso5426ToUnicode();
         String dataElement = converterUnimarc.convert(bytes);
-        dataElement = dataElement.replaceAll("\u0088", "");
-        dataElement = dataElement.replaceAll("\u0089", "");
+        if (dataElement.indexOf('\u0088') >= 0) dataElement = dataElement.replaceAll("\u0088", "");
+        if (dataElement.indexOf('\u0089') >= 0) dataElement = dataElement.replaceAll("\u0089", "");
 //        for ( int i = 0 ; i < bytes.length; i++)
 //        {
 //            if (bytes[i] == -120 || bytes[i] == -119)
@@ -1614,7 +1638,7 @@ public class MarcPermissiveStreamReader implements MarcReader {
 //
 //            }
 //        }
-        if (dataElement.matches("[^<]*<U[+][0-9A-Fa-f][0-9A-Fa-f][0-9A-Fa-f][0-9A-Fa-f]>.*"))
+        if (dataElement.indexOf("<U+") >= 0 && dataElement.matches("[^<]*<U[+][0-9A-Fa-f][0-9A-Fa-f][0-9A-Fa-f][0-9A-Fa-f]>.*"))
         {
             Pattern pattern = Pattern.compile("<U[+]([0-9A-Fa-f][0-9A-Fa-f][0-9A-Fa-f][0-9A-Fa-f])>"); 
             Matcher matcher = pattern.matcher(dataElement);
@@ -0,0 +1,488 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+import org.marc4j.converter.CharConverter;
+import org.marc4j.converter.impl.AnselToUnicode;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.marc4j.marc.VariableField;
+import org.marc4j.marc.impl.LazyRecordImpl;
+import org.marc4j.marc.impl.TagTable;
+import org.marc4j.marc.impl.Verifier;
+
+/**
+ * Decodes a single MARC record in ISO 2709 format from a byte array.
+ * 
+ * <p>
+ * The leader, the directory and the subfield boundaries are decoded with
+ * offset arithmetic directly over the array holding the record, so readers
+ * can keep the raw bytes in one buffer that they reuse for every record. This
+ * is the parser shared by {@link MarcStreamReader} and
+ * {@link MappedMarcFileReader}.
+ * </p>
+ * 
+ * <p>
+ * When no encoding is given the character coding scheme (leader position 9)
+ * of each record determines how its data elements are decoded; a record with
+ * another coding scheme keeps the encoding of the record before it. An
+ * instance is not thread-safe.
+ * </p>
+ * 
+ * @author Bas Peters
+ * @version $Revision$
+ */
+class MarcRecordParser {
+
+    static final int LEADER_LENGTH = 24;
+
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private MarcFactory factory;
+
+    private String encoding = "ISO8859_1";
+
+    private boolean override = false;
+       
+    private CharConverter converterAnsel = null;
+
+    private boolean lazy = false;
+
+    private TagFilter filter = null;
+
+    private String[] tags = new String[64];
+
+    private int[] offsets = new int[64];
+
+    private int[] lengths = new int[64];
+
+    /**
+     * Creates a parser that builds records with the given factory.
+     * 
+     * @param factory the factory used to create the record objects
+     * @param encoding the encoding of the data elements or <code>null</code>
+     *                 to use the character coding scheme in the leader
+     */
+    MarcRecordParser(MarcFactory factory, String encoding) {
+        this.factory = factory;
+        if (encoding != null) {
+            this.encoding = encoding;
+            override = true;
+        }
+    }
+
+    /**
+     * Returns the record length stored in the first five bytes of the leader
+     * that starts at the given offset.
+     * 
+     * @throws MarcException if the record length is not a number or is
+     *             shorter than the leader
+     */
+    static int parseRecordLength(byte[] leaderData, int offset) {
+        int length = parseNumber(leaderData, offset, 5);
+        if (length < 0) {
+            throw new MarcException("unable to parse record length", 
+                    new NumberFormatException("For input string: \""
+                            + new String(leaderData, offset, 5, ISO_8859_1) + "\""));
+        }
+        if (length < LEADER_LENGTH) {
+            throw new MarcException("invalid record length: " + length);
+        }
+        return(length);
+    }
+
+    /**
+     * Sets whether records are returned as {@link LazyRecordImpl} instances
+     * that decode their fields on first access instead of fully decoded
+     * records.
+     */
+    void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Sets the filter that selects the fields and subfields to decode, or
+     * <code>null</code> to decode all fields.
+     */
+    void setTagFilter(TagFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the encoding of a record with the given character coding scheme
+     * (leader position 9). Unless an encoding was given to the constructor a
+     * blank selects ISO-8859-1 and <code>a</code> selects UTF-8, while any
+     * other value keeps the encoding of the record resolved before it.
+     */
+    String resolveEncoding(char charCodingScheme) {
+        if (!override) {
+            switch (charCodingScheme) {
+            case ' ':
+                encoding = "ISO-8859-1";
+                break;
+            case 'a':
+                encoding = "UTF8";
+            }
+        }
+        return encoding;
+    }
+
+    /**
+     * Returns the encoding of the record that starts with the given leader
+     * like {@link #resolveEncoding(char)}, leaving the current encoding
+     * unchanged if the leader cannot be parsed.
+     */
+    String resolveEncoding(byte[] leaderData) {
+        Leader ldr = factory.newLeader();
+        try {
+            parseLeader(ldr, leaderData);
+        } 
+        catch (MarcException e) {
+            // parse() rejects the record before resolving its encoding
+            return encoding;
+        }
+        return resolveEncoding(ldr.getCharCodingScheme());
+    }
+
+    /**
+     * Parses the record stored in the first <code>recordLength</code> bytes
+     * of the given buffer.
+     * 
+     * <p>
+     * In lazy mode only the leader and the directory are decoded and the
+     * returned record keeps its own copy of the record bytes, so the buffer
+     * can be reused as soon as this method returns.
+     * </p>
+     * 
+     * @param buf the buffer holding the record, starting with the leader
+     * @param recordLength the length of the record
+     * @return Record - the record object
+     */
+    Record parse(byte[] buf, int recordLength)
+    {
+        return parse(buf, recordLength, null);
+    }
+
+    /**
+     * Parses the record stored in the first <code>recordLength</code> bytes
+     * of the given buffer with the given encoding, or with the encoding
+     * returned by {@link #resolveEncoding(char)} if it is <code>null</code>.
+     * Parsing with a given encoding does not change the state of the parser,
+     * so records that were resolved in order can be decoded on other threads.
+     * 
+     * @param buf the buffer holding the record, starting with the leader
+     * @param recordLength the length of the record
+     * @param encoding the encoding of the data elements or <code>null</code>
+     * @return Record - the record object
+     */
+    Record parse(byte[] buf, int recordLength, String encoding)
+    {
+        Leader ldr;
+        ldr = factory.newLeader();
+        ldr.setRecordLength(recordLength);
+        int directoryLength=0;
+        
+        try {                
+            parseLeader(ldr, buf);
+            directoryLength = ldr.getBaseAddressOfData() - (LEADER_LENGTH + 1);
+        } 
+        catch (MarcException e) {
+            throw new MarcException("error parsing leader with data: "
+                    + new String(buf, 0, LEADER_LENGTH, ISO_8859_1), e);
+        }
+
+        // if MARC 21 then check encoding
+        if (encoding == null)
+            encoding = resolveEncoding(ldr.getCharCodingScheme());
+        
+        if ((directoryLength % 12) != 0)
+        {
+            throw new MarcException("invalid directory");
+        }
+        int size = parseDirectory(buf, recordLength, directoryLength / 12);
+
+        if (lazy)
+        {
+            byte[] data = new byte[recordLength];
+            System.arraycopy(buf, 0, data, 0, recordLength);
+            String[] entryTags = new String[size];
+            int[] entryOffsets = new int[size];
+            int[] entryLengths = new int[size];
+            System.arraycopy(tags, 0, entryTags, 0, size);
+            System.arraycopy(offsets, 0, entryOffsets, 0, size);
+            System.arraycopy(lengths, 0, entryLengths, 0, size);
+            return new LazyRecordImpl(ldr, data, entryTags, entryOffsets, entryLengths, 
+                    new Decoder(encoding, filter));
+        }
+
+        Record record = factory.newRecord();
+        record.setLeader(ldr);
+        for (int i = 0; i < size; i++) 
+        {
+            record.addVariableField(decodeField(encoding, filter, tags[i], buf, offsets[i], lengths[i]));
+        }
+        return record;
+    }
+
+    /**
+     * Decodes the directory into the <code>tags</code>, <code>offsets</code>
+     * and <code>lengths</code> arrays, checking that every field ends within
+     * the record and that the directory and the record are properly
+     * terminated. The fields are located in directory order right after the
+     * directory. Entries rejected by the tag filter are skipped.
+     * 
+     * @return the number of directory entries that were kept
+     */
+    private int parseDirectory(byte[] buf, int recordLength, int size)
+    {
+        if (tags.length < size)
+        {
+            int newSize = Math.max(size, tags.length * 2);
+            tags = new String[newSize];
+            offsets = new int[newSize];
+            lengths = new int[newSize];
+        }
+
+        int dirPos = LEADER_LENGTH;
+        int pos = LEADER_LENGTH + size * 12;
+
+        if (pos >= recordLength || buf[pos] != Constants.FT)
+        {
+            throw new MarcException("expected field terminator at end of directory");
+        }
+        pos++;
+
+        int count = 0;
+        for (int i = 0; i < size; i++, dirPos += 12) 
+        {
+            int length = parseNumber(buf, dirPos + 3, 4);
+            if (length < 0)
+            {
+                throw new MarcException("unable to parse field length for tag: " 
+                        + new String(buf, dirPos, 3, ISO_8859_1));
+            }
+            if (pos + length > recordLength)
+            {
+                throw new MarcException("an error occured reading input", 
+                        new EOFException("field " + new String(buf, dirPos, 3, ISO_8859_1)
+                                + " extends beyond the end of the record"));
+            }
+            if (filter != null && !filter.acceptsTag(buf, dirPos))
+            {
+                pos += length;
+                continue;
+            }
+            String tag = TagTable.getTag(buf, dirPos);
+            if (Verifier.isControlField(tag) && (length < 1 || buf[pos + length - 1] != Constants.FT))
+            {
+                throw new MarcException("expected field terminator at end of field");
+            }
+            tags[count] = tag;
+            offsets[count] = pos;
+            lengths[count] = length;
+            count++;
+            pos += length;
+        }
+            
+        if (pos >= recordLength || buf[pos] != Constants.RT)
+        {
+            throw new MarcException("expected record terminator");
+        } 
+        return count;
+    }
+
+    /**
+     * Decodes the control field or data field stored at the given position,
+     * including its field terminator.
+     */
+    private VariableField decodeField(String encoding, TagFilter filter, String tag, byte[] buf, int offset, int length)
+    {
+        if (Verifier.isControlField(tag)) 
+        {
+            ControlField field = factory.newControlField();
+            field.setTag(tag);
+            field.setData(getDataAsString(encoding, buf, offset, length - 1));
+            return field;
+        } 
+        else 
+        {
+            return parseDataField(encoding, filter, tag, buf, offset, length);
+        }
+    }
+
+    private DataField parseDataField(String encoding, TagFilter filter, String tag, byte[] buf, int offset, int length)
+    {
+        if (length < 2)
+        {
+            throw new MarcException("error parsing data field for tag: " + tag 
+                    + " with data: " + new String(buf, offset, length, ISO_8859_1));
+        }
+        int end = offset + length;
+        char ind1 = (char) (buf[offset] & 0xff);
+        char ind2 = (char) (buf[offset + 1] & 0xff);
+
+        DataField dataField = factory.newDataField();
+        dataField.setTag(tag);
+        dataField.setIndicator1(ind1);
+        dataField.setIndicator2(ind2);
+
+        int pos = offset + 2;
+        while (pos < end) {
+            if (buf[pos] != Constants.US) {
+                pos++;
+                continue;
+            }
+            if (pos + 1 >= end)
+                throw new MarcException("error parsing data field for tag: " + tag 
+                        + " with data: " + new String(buf, offset, length, ISO_8859_1),
+                        new IOException("unexpected end of data field"));
+            int code = buf[pos + 1] & 0xff;
+            if (code == Constants.FT) {
+                pos += 2;
+                continue;
+            }
+            int start = pos + 2;
+            int subfieldEnd = start;
+            while (subfieldEnd < end && buf[subfieldEnd] != Constants.US && buf[subfieldEnd] != Constants.FT)
+                subfieldEnd++;
+            if (subfieldEnd == end)
+                throw new MarcException("error parsing data field for tag: " + tag 
+                        + " with data: " + new String(buf, offset, length, ISO_8859_1),
+                        new IOException("subfield not terminated"));
+            if (filter != null && !filter.acceptsSubfield(tag, (char) code)) {
+                pos = subfieldEnd;
+                continue;
+            }
+            Subfield subfield = factory.newSubfield();
+            subfield.setCode((char) code);
+            subfield.setData(getDataAsString(encoding, buf, start, subfieldEnd - start));
+            dataField.addSubfield(subfield);
+            pos = subfieldEnd;
+        }
+        return dataField;
+    }
+
+    private void parseLeader(Leader ldr, byte[] leaderData) {
+        //  Skip over bytes for record length, If we get here, its already been computed.
+        ldr.setRecordStatus((char) (leaderData[5] & 0xff));
+        ldr.setTypeOfRecord((char) (leaderData[6] & 0xff));
+        ldr.setImplDefined1(toChars(leaderData, 7, 2));
+        ldr.setCharCodingScheme((char) (leaderData[9] & 0xff));
+        ldr.setImplDefined2(toChars(leaderData, 17, 3));
+        ldr.setEntryMap(toChars(leaderData, 20, 4));
+        int indicatorCount = parseNumber(leaderData, 10, 1);
+        if (indicatorCount < 0)
+            throw new MarcException("unable to parse indicator count");
+        ldr.setIndicatorCount(indicatorCount);
+        int subfieldCodeLength = parseNumber(leaderData, 11, 1);
+        if (subfieldCodeLength < 0)
+            throw new MarcException("unable to parse subfield code length");
+        ldr.setSubfieldCodeLength(subfieldCodeLength);
+        int baseAddress = parseNumber(leaderData, 12, 5);
+        if (baseAddress < 0)
+            throw new MarcException("unable to parse base address of data");
+        ldr.setBaseAddressOfData(baseAddress);
+    }
+
+    private static char[] toChars(byte[] buf, int offset, int length)
+    {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (buf[offset + i] & 0xff);
+        return chars;
+    }
+
+    /**
+     * Returns the value of the unsigned decimal number stored as ASCII digits
+     * at the given position, or -1 if one of the bytes is not a digit.
+     */
+    static int parseNumber(byte[] buf, int offset, int length)
+    {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private String getDataAsString(String encoding, byte[] bytes, int offset, int length) 
+    {
+        String dataElement = null;
+        if (encoding.equals("UTF-8") || encoding.equals("UTF8"))
+        {
+            try {
+                dataElement = new String(bytes, offset, length, "UTF8");
+            } 
+            catch (UnsupportedEncodingException e) {
+                throw new MarcException("unsupported encoding", e);
+            }
+        }
+        else if (encoding.equals("MARC-8") || encoding.equals("MARC8"))
+        {
+            if (converterAnsel == null) converterAnsel = new AnselToUnicode();
+            dataElement = converterAnsel.convert(bytes, offset, length);
+        }
+        else if (encoding.equals("ISO-8859-1") || encoding.equals("ISO8859_1") || encoding.equals("ISO_8859_1"))
+        {
+            try {
+                dataElement = new String(bytes, offset, length, "ISO-8859-1");
+            } 
+            catch (UnsupportedEncodingException e) {
+                throw new MarcException("unsupported encoding", e);
+            }
+        }
+        return dataElement;
+    }
+    
+    /**
+     * Decodes the fields of a lazily decoded record with the encoding and
+     * the filter that were in effect when the record was read.
+     */
+    private class Decoder implements LazyRecordImpl.FieldDecoder {
+
+        private String encoding;
+
+        private TagFilter filter;
+
+        Decoder(String encoding, TagFilter filter) {
+            this.encoding = encoding;
+            this.filter = filter;
+        }
+
+        public VariableField decodeField(String tag, byte[] data, int offset, int length) {
+            return MarcRecordParser.this.decodeField(encoding, filter, tag, data, offset, length);
+        }
+
+    }
+
+}
@@ -21,27 +21,13 @@
 package org.marc4j;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 
-import org.marc4j.converter.CharConverter;
-import org.marc4j.converter.impl.AnselToUnicode;
-import org.marc4j.marc.ControlField;
-import org.marc4j.marc.DataField;
-import org.marc4j.marc.Leader;
 import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
-import org.marc4j.marc.Subfield;
-import org.marc4j.marc.VariableField;
-import org.marc4j.marc.impl.Verifier;
 
 /**
  * An iterator over a collection of MARC records in ISO 2709 format.
@@ -69,6 +55,15 @@ import org.marc4j.marc.impl.Verifier;
  * defined.
  * </p>
  * 
+ * <p>
+ * Each record is read into a single byte buffer that is owned by the reader
+ * and reused (and grown when needed) for subsequent records. The leader, the
+ * directory and the subfield boundaries are decoded with offset arithmetic
+ * directly over that buffer; the only objects created per field are the
+ * field and subfield instances and the <code>String</code> values of their
+ * data elements.
+ * </p>
+ * 
  * @author Bas Peters
  * @version $Revision$
  * 
@@ -77,15 +72,9 @@ public class MarcStreamReader implements MarcReader {
 
     private DataInputStream input = null;
 
-    private Record record;
-
-    private MarcFactory factory;
+    private MarcRecordParser parser;
 
-    private String encoding = "ISO8859_1";
-
-    private boolean override = false;
-       
-    private CharConverter converterAnsel = null;
+    private byte[] buffer = new byte[4096];
 
     /**
      * Constructs an instance with the specified input stream.
@@ -99,11 +88,39 @@ public class MarcStreamReader implements MarcReader {
      */
     public MarcStreamReader(InputStream input, String encoding) {
         this.input = new DataInputStream((input.markSupported()) ? input : new BufferedInputStream(input));
-        factory = MarcFactory.newInstance();
-        if (encoding != null) {
-            this.encoding = encoding;
-            override = true;
-        }
+        parser = new MarcRecordParser(MarcFactory.newInstance(), encoding);
+    }
+
+    /**
+     * Sets whether the records returned by {@link #next()} decode their
+     * fields on demand.
+     * 
+     * <p>
+     * When set to true, only the leader and the directory are decoded while
+     * reading and each record is returned as a
+     * {@link org.marc4j.marc.impl.LazyRecordImpl} that decodes and converts a
+     * field the first time it is requested. This saves most of the work for
+     * applications that only look at a few fields of each record. Errors in
+     * the data of a field are then reported when the field is accessed. The
+     * default is false.
+     * </p>
+     * 
+     * @param lazy true to decode fields on demand
+     */
+    public void setLazyDecoding(boolean lazy) {
+        parser.setLazy(lazy);
+    }
+
+    /**
+     * Sets the filter that selects the fields, and optionally the subfields,
+     * that are decoded. Directory entries of other fields are skipped without
+     * creating objects for them or converting their data. Set to
+     * <code>null</code> (the default) to decode all fields.
+     * 
+     * @param filter the filter or <code>null</code>
+     */
+    public void setTagFilter(TagFilter filter) {
+        parser.setTagFilter(filter);
     }
 
     /**
@@ -128,18 +145,14 @@ public class MarcStreamReader implements MarcReader {
      */
     public Record next() 
     {
-        record = factory.newRecord();
-
         try {
+            input.readFully(buffer, 0, MarcRecordParser.LEADER_LENGTH);
 
-            byte[] byteArray = new byte[24];
-            input.readFully(byteArray);
-
-            int recordLength = parseRecordLength(byteArray);
-            byte[] recordBuf = new byte[recordLength - 24];
-            input.readFully(recordBuf);
-            parseRecord(record, byteArray, recordBuf, recordLength);
-            return(record);
+            int recordLength = MarcRecordParser.parseRecordLength(buffer, 0);
+            ensureCapacity(recordLength);
+            input.readFully(buffer, MarcRecordParser.LEADER_LENGTH, 
+                    recordLength - MarcRecordParser.LEADER_LENGTH);
+            return parser.parse(buffer, recordLength);
         }
         catch (EOFException e) {
             throw new MarcException("Premature end of file encountered", e);
@@ -148,279 +161,18 @@ public class MarcStreamReader implements MarcReader {
             throw new MarcException("an error occured reading input", e);
         }   
     }
-    
-    private void parseRecord(Record record, byte[] byteArray, byte[] recordBuf, int recordLength)
-    {
-        Leader ldr;
-        ldr = factory.newLeader();
-        ldr.setRecordLength(recordLength);
-        int directoryLength=0;
-        
-        try {                
-            parseLeader(ldr, byteArray);
-            directoryLength = ldr.getBaseAddressOfData() - (24 + 1);
-        } 
-        catch (IOException e) {
-            throw new MarcException("error parsing leader with data: "
-                    + new String(byteArray), e);
-        } 
-        catch (MarcException e) {
-            throw new MarcException("error parsing leader with data: "
-                    + new String(byteArray), e);
-        }
-
-        // if MARC 21 then check encoding
-        switch (ldr.getCharCodingScheme()) {
-        case ' ':
-            if (!override)
-                encoding = "ISO-8859-1";
-            break;
-        case 'a':
-            if (!override)
-                encoding = "UTF8";
-        }
-        record.setLeader(ldr);
-        
-        if ((directoryLength % 12) != 0)
-        {
-            throw new MarcException("invalid directory");
-        }
-        DataInputStream inputrec = new DataInputStream(new ByteArrayInputStream(recordBuf));
-        int size = directoryLength / 12;
-
-        String[] tags = new String[size];
-        int[] lengths = new int[size];
-
-        byte[] tag = new byte[3];
-        byte[] length = new byte[4];
-        byte[] start = new byte[5];
-
-        String tmp;
-
-        try {
-            for (int i = 0; i < size; i++) 
-            {
-                inputrec.readFully(tag);                
-                tmp = new String(tag);
-                tags[i] = tmp;
-    
-                inputrec.readFully(length);
-                tmp = new String(length);
-                lengths[i] = Integer.parseInt(tmp);
-    
-                inputrec.readFully(start);
-            }
-    
-            if (inputrec.read() != Constants.FT)
-            {
-                throw new MarcException("expected field terminator at end of directory");
-            }
-            
-            for (int i = 0; i < size; i++) 
-            {
-                int fieldLength = getFieldLength(inputrec);
-                if (Verifier.isControlField(tags[i])) 
-                {
-                    byteArray = new byte[lengths[i] - 1];
-                    inputrec.readFully(byteArray);
-    
-                    if (inputrec.read() != Constants.FT)
-                    {
-                        throw new MarcException("expected field terminator at end of field");
-                    }
-    
-                    ControlField field = factory.newControlField();
-                    field.setTag(tags[i]);
-                    field.setData(getDataAsString(byteArray));
-                    record.addVariableField(field);
-                } 
-                else 
-                {
-                    byteArray = new byte[lengths[i]];
-                    inputrec.readFully(byteArray);
-    
-                    try {
-                        record.addVariableField(parseDataField(tags[i], byteArray));
-                    } catch (IOException e) {
-                        throw new MarcException(
-                                "error parsing data field for tag: " + tags[i]
-                                        + " with data: "
-                                        + new String(byteArray), e);
-                    }
-                }
-            }
-            
-            if (inputrec.read() != Constants.RT)
-            {
-                throw new MarcException("expected record terminator");
-            } 
-        }
-        catch (IOException e)
-        {
-            throw new MarcException("an error occured reading input", e);            
-        }
-    }
 
-    private DataField parseDataField(String tag, byte[] field)
-            throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(field);
-        char ind1 = (char) bais.read();
-        char ind2 = (char) bais.read();
-
-        DataField dataField = factory.newDataField();
-        dataField.setTag(tag);
-        dataField.setIndicator1(ind1);
-        dataField.setIndicator2(ind2);
-
-        int code;
-        int size;
-        int readByte;
-        byte[] data;
-        Subfield subfield;
-        while (true) {
-            readByte = bais.read();
-            if (readByte < 0)
-                break;
-            switch (readByte) {
-            case Constants.US:
-                code = bais.read();
-                if (code < 0)
-                    throw new IOException("unexpected end of data field");
-                if (code == Constants.FT)
-                    break;
-                size = getSubfieldLength(bais);
-                data = new byte[size];
-                bais.read(data);
-                subfield = factory.newSubfield();
-                subfield.setCode((char) code);
-                subfield.setData(getDataAsString(data));
-                dataField.addSubfield(subfield);
-                break;
-            case Constants.FT:
-                break;
-            }
-        }
-        return dataField;
-    }
-    
-    private int getFieldLength(DataInputStream bais) throws IOException 
+    /**
+     * Grows the record buffer so it can hold at least <code>length</code>
+     * bytes, keeping the leader that has already been read.
+     */
+    private void ensureCapacity(int length)
     {
-        bais.mark(9999);
-        int bytesRead = 0;
-        while (true) {
-            switch (bais.read()) {
-             case Constants.FT:
-                bais.reset();
-                return bytesRead;
-            case -1:
-                bais.reset();
-                throw new IOException("Field not terminated");
-            case Constants.US:
-            default:
-                bytesRead++;
-            }
-        }
-    }
-
-    private int getSubfieldLength(ByteArrayInputStream bais) throws IOException {
-        bais.mark(9999);
-        int bytesRead = 0;
-        while (true) {
-            switch (bais.read()) {
-            case Constants.US:
-            case Constants.FT:
-                bais.reset();
-                return bytesRead;
-            case -1:
-                bais.reset();
-                throw new IOException("subfield not terminated");
-            default:
-                bytesRead++;
-            }
-        }
+        if (length <= buffer.length)
+            return;
+        byte[] newBuffer = new byte[Math.max(length, buffer.length * 2)];
+        System.arraycopy(buffer, 0, newBuffer, 0, MarcRecordParser.LEADER_LENGTH);
+        buffer = newBuffer;
     }
 
-    private int parseRecordLength(byte[] leaderData) throws IOException {
-        InputStreamReader isr = new InputStreamReader(new ByteArrayInputStream(leaderData), "ISO-8859-1");
-        int length = -1;
-        char[] tmp = new char[5];
-        isr.read(tmp);
-        try {
-            length = Integer.parseInt(new String(tmp));
-        } catch (NumberFormatException e) {
-            throw new MarcException("unable to parse record length", e);
-        }
-        return(length);
-    }
-    
-    private void parseLeader(Leader ldr, byte[] leaderData) throws IOException {
-        InputStreamReader isr = new InputStreamReader(new ByteArrayInputStream(leaderData),"ISO-8859-1");
-        char[] tmp = new char[5];
-        isr.read(tmp);
-        //  Skip over bytes for record length, If we get here, its already been computed.
-        ldr.setRecordStatus((char) isr.read());
-        ldr.setTypeOfRecord((char) isr.read());
-        tmp = new char[2];
-        isr.read(tmp);
-        ldr.setImplDefined1(tmp);
-        ldr.setCharCodingScheme((char) isr.read());
-        char indicatorCount = (char) isr.read();
-        char subfieldCodeLength = (char) isr.read();
-        char baseAddr[] = new char[5];
-        isr.read(baseAddr);
-        tmp = new char[3];
-        isr.read(tmp);
-        ldr.setImplDefined2(tmp);
-        tmp = new char[4];
-        isr.read(tmp);
-        ldr.setEntryMap(tmp);
-        isr.close();
-        try {
-            ldr.setIndicatorCount(Integer.parseInt(String.valueOf(indicatorCount)));
-        } catch (NumberFormatException e) {
-            throw new MarcException("unable to parse indicator count", e);
-        }
-        try {
-            ldr.setSubfieldCodeLength(Integer.parseInt(String
-                    .valueOf(subfieldCodeLength)));
-        } catch (NumberFormatException e) {
-            throw new MarcException("unable to parse subfield code length", e);
-        }
-        try {
-            ldr.setBaseAddressOfData(Integer.parseInt(new String(baseAddr)));
-        } catch (NumberFormatException e) {
-            throw new MarcException("unable to parse base address of data", e);
-        }
-
-    }
-
-    private String getDataAsString(byte[] bytes) 
-    {
-        String dataElement = null;
-        if (encoding.equals("UTF-8") || encoding.equals("UTF8"))
-        {
-            try {
-                dataElement = new String(bytes, "UTF8");
-            } 
-            catch (UnsupportedEncodingException e) {
-                throw new MarcException("unsupported encoding", e);
-            }
-        }
-        else if (encoding.equals("MARC-8") || encoding.equals("MARC8"))
-        {
-            if (converterAnsel == null) converterAnsel = new AnselToUnicode();
-            dataElement = converterAnsel.convert(bytes);
-        }
-        else if (encoding.equals("ISO-8859-1") || encoding.equals("ISO8859_1") || encoding.equals("ISO_8859_1"))
-        {
-            try {
-                dataElement = new String(bytes, "ISO-8859-1");
-            } 
-            catch (UnsupportedEncodingException e) {
-                throw new MarcException("unsupported encoding", e);
-            }
-        }
-        return dataElement;
-    }
-    
 }
\ No newline at end of file
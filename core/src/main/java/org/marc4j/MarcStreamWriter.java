@@ -20,7 +20,6 @@
  */
 package org.marc4j;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.DecimalFormat;
@@ -71,6 +70,15 @@ import org.marc4j.util.CustomDecimalFormat;
  * writer.close();
  * </pre>
  * 
+ * <p>
+ * Each record is encoded into a buffer that is owned by the writer and reused
+ * for every record, and is then written to the output stream with a single
+ * call. A writer instance is therefore not thread-safe, but separate writers
+ * can be used on separate threads. A subclass that overrides
+ * {@link #writeLeader(Leader)} or {@link #getEntry(String, int, int)} has the
+ * leader and the directory entries encoded by these methods instead.
+ * </p>
+ * 
  * @author Bas Peters
  * @version $Revision$
  */
@@ -84,11 +92,35 @@ public class MarcStreamWriter implements MarcWriter {
     protected boolean allowOversizeEntry = false;
     protected boolean hasOversizeOffset = false;
     protected boolean hasOversizeLength = false;
-    
+
+    /**
+     * @deprecated no longer used by this class, which formats the numbers in
+     *             the leader and the directory itself
+     */
+    @Deprecated
     protected static DecimalFormat format4Use = new CustomDecimalFormat(4);
 
+    /**
+     * @deprecated no longer used by this class, which formats the numbers in
+     *             the leader and the directory itself
+     */
+    @Deprecated
     protected static DecimalFormat format5Use = new CustomDecimalFormat(5);
 
+    private RecordBuffer data = new RecordBuffer(8192);
+
+    private RecordBuffer dir = new RecordBuffer(1024);
+
+    private static final int[] MAX_VALUES = { 0, 9, 99, 999, 9999, 99999 };
+
+    private String checkedEncoding = null;
+
+    private boolean asciiEncoding = false;
+
+    // true if a subclass overrides writeLeader(Leader) or getEntry(String,
+    // int, int), which write() then calls as it always did
+    private final boolean overridesEncoding = overridesEncoding(getClass());
+
     /**
      * Constructs an instance and creates a <code>Writer</code> object with
      * the specified output stream.
@@ -153,11 +185,16 @@ public class MarcStreamWriter implements MarcWriter {
         int previous = 0;
         
         try {
-            ByteArrayOutputStream data = new ByteArrayOutputStream();
-            ByteArrayOutputStream dir = new ByteArrayOutputStream();
+            checkEncoding();
+            data.reset();
+            dir.reset();
             hasOversizeOffset = false;
             hasOversizeLength = false;
-            
+
+            // the leader is encoded once the directory is complete, the
+            // data starts after the space reserved for it
+            data.count = 24;
+
             // control fields
             List fields = record.getControlFields();
             Iterator i = fields.iterator();
@@ -166,9 +203,8 @@ public class MarcStreamWriter implements MarcWriter {
 
                 data.write(getDataElement(cf.getData()));
                 data.write(Constants.FT);
-                dir.write(getEntry(cf.getTag(), data.size() - previous,
-                        previous));
-                previous = data.size();
+                addEntry(cf.getTag(), data.count - 24 - previous, previous);
+                previous = data.count - 24;
             }
 
             // data fields
@@ -187,24 +223,19 @@ public class MarcStreamWriter implements MarcWriter {
                     data.write(getDataElement(sf.getData()));
                 }
                 data.write(Constants.FT);
-                dir.write(getEntry(df.getTag(), data.size() - previous,
-                        previous));
-                previous = data.size();
+                addEntry(df.getTag(), data.count - 24 - previous, previous);
+                previous = data.count - 24;
             }
             dir.write(Constants.FT);
 
             // base address of data and logical record length
             Leader ldr = record.getLeader();
 
-            int baseAddress = 24 + dir.size();
+            int baseAddress = 24 + dir.count;
             ldr.setBaseAddressOfData(baseAddress);
-            int recordLength = ldr.getBaseAddressOfData() + data.size() + 1;
+            int recordLength = ldr.getBaseAddressOfData() + previous + 1;
             ldr.setRecordLength(recordLength);
 
-            // write record to output stream
-            dir.close();
-            data.close();
-            
             if (!allowOversizeEntry && (baseAddress > 99999 || recordLength > 99999 || hasOversizeOffset))
             {
                 throw new MarcException("Record is too long to be a valid MARC binary record, it's length would be "+recordLength+" which is more thatn 99999 bytes");
@@ -213,10 +244,34 @@ public class MarcStreamWriter implements MarcWriter {
             {
                 throw new MarcException("Record has field that is too long to be a valid MARC binary record. The maximum length for a field counting all of the sub-fields is 9999 bytes.");
             }
-            writeLeader(ldr);
-            out.write(dir.toByteArray());
-            out.write(data.toByteArray());
-            out.write(Constants.RT);
+
+            // move the data behind the directory, put the directory and the
+            // leader in front of it and write the record to the output stream
+            data.write(Constants.RT);
+            int end = data.count;
+            data.ensureCapacity(end + dir.count);
+            System.arraycopy(data.buf, 24, data.buf, baseAddress, end - 24);
+            System.arraycopy(dir.buf, 0, data.buf, 24, dir.count);
+            end += dir.count;
+
+            if (overridesEncoding) {
+                writeLeader(ldr);
+                out.write(data.buf, 24, end - 24);
+                return;
+            }
+
+            // the leader is encoded after the record, in case any of its
+            // values does not take a single byte in the output encoding
+            data.count = end;
+            writeLeader(data, ldr);
+            int leaderLength = data.count - end;
+            if (leaderLength == 24) {
+                System.arraycopy(data.buf, end, data.buf, 0, 24);
+                out.write(data.buf, 0, end);
+            } else {
+                out.write(data.buf, end, leaderLength);
+                out.write(data.buf, 24, end - 24);
+            }
 
         } catch (IOException e) {
             throw new MarcException("IO Error occured while writing record", e);
@@ -226,19 +281,23 @@ public class MarcStreamWriter implements MarcWriter {
     }
 
     protected void writeLeader(Leader ldr) throws IOException {
-        out.write(format5Use.format(ldr.getRecordLength()).getBytes(encoding));
-        out.write(ldr.getRecordStatus());
-        out.write(ldr.getTypeOfRecord());
-        out.write(new String(ldr.getImplDefined1()).getBytes(encoding));
-        out.write(ldr.getCharCodingScheme());
-        out.write(Integer.toString(ldr.getIndicatorCount()).getBytes(encoding));
-        out.write(Integer.toString(ldr.getSubfieldCodeLength()).getBytes(
-                encoding));
-        out
-                .write(format5Use.format(ldr.getBaseAddressOfData()).getBytes(
-                        encoding));
-        out.write(new String(ldr.getImplDefined2()).getBytes(encoding));
-        out.write(new String(ldr.getEntryMap()).getBytes(encoding));
+        checkEncoding();
+        RecordBuffer leader = new RecordBuffer(24);
+        writeLeader(leader, ldr);
+        out.write(leader.buf, 0, leader.count);
+    }
+
+    private void writeLeader(RecordBuffer buf, Leader ldr) throws IOException {
+        buf.writeNumber(ldr.getRecordLength(), 5);
+        buf.write(ldr.getRecordStatus());
+        buf.write(ldr.getTypeOfRecord());
+        buf.writeChars(ldr.getImplDefined1());
+        buf.write(ldr.getCharCodingScheme());
+        buf.writeNumber(ldr.getIndicatorCount(), 0);
+        buf.writeNumber(ldr.getSubfieldCodeLength(), 0);
+        buf.writeNumber(ldr.getBaseAddressOfData(), 5);
+        buf.writeChars(ldr.getImplDefined2());
+        buf.writeChars(ldr.getEntryMap());
     }
 
     /**
@@ -259,10 +318,71 @@ public class MarcStreamWriter implements MarcWriter {
     }
 
     protected byte[] getEntry(String tag, int length, int start) throws IOException {
-        String entryUse = tag + format4Use.format(length) + format5Use.format(start);
+        checkEncoding();
+        int mark = dir.count;
+        writeEntry(tag, length, start);
+        byte[] entry = new byte[dir.count - mark];
+        System.arraycopy(dir.buf, mark, entry, 0, entry.length);
+        dir.count = mark;
+        return entry;
+    }
+
+    private void addEntry(String tag, int length, int start) throws IOException {
+        if (overridesEncoding)
+            dir.write(getEntry(tag, length, start));
+        else
+            writeEntry(tag, length, start);
+    }
+
+    private void writeEntry(String tag, int length, int start) throws IOException {
+        if (asciiEncoding) {
+            dir.writeChars(tag);
+            dir.writeNumber(length, 4);
+            dir.writeNumber(start, 5);
+        } else {
+            String entryUse = tag + formatNumber(Math.min(length, 9999), 4)
+                    + formatNumber(Math.min(start, 99999), 5);
+            dir.write(entryUse.getBytes(encoding));
+        }
         if (length > 99999) hasOversizeLength = true;
         if (start > 99999) hasOversizeOffset = true;
-        return (entryUse.getBytes(encoding));
+    }
+
+    /**
+     * Determines whether the ASCII characters used in the leader and the
+     * directory are encoded as single bytes with the same value in the
+     * current encoding, which allows them to be copied to the buffer
+     * directly.
+     */
+    private void checkEncoding() throws IOException {
+        if (encoding.equals(checkedEncoding))
+            return;
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++)
+            ascii[i] = (char) i;
+        byte[] bytes = new String(ascii).getBytes(encoding);
+        asciiEncoding = bytes.length == ascii.length;
+        for (int i = 0; asciiEncoding && i < bytes.length; i++)
+            asciiEncoding = bytes[i] == i;
+        checkedEncoding = encoding;
+    }
+
+    private static boolean overridesEncoding(Class c) {
+        for (; c != MarcStreamWriter.class; c = c.getSuperclass()) {
+            if (declares(c, "writeLeader", new Class[] { Leader.class })
+                    || declares(c, "getEntry", new Class[] { String.class, int.class, int.class }))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean declares(Class c, String name, Class[] parameterTypes) {
+        try {
+            c.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
     }
 
     public boolean allowsOversizeEntry()
@@ -274,4 +394,110 @@ public class MarcStreamWriter implements MarcWriter {
     {
         this.allowOversizeEntry = allowOversizeEntry;
     }
-}
\ No newline at end of file
+
+    /**
+     * Formats the number like <code>CustomDecimalFormat</code> with leading
+     * zeros, keeping the last <code>digits</code> digits of a negative
+     * number.
+     */
+    private static String formatNumber(long value, int digits) {
+        if (digits == 0)
+            return Long.toString(value);
+        StringBuffer sb = new StringBuffer();
+        if (value < 0) {
+            sb.append('-');
+            value = -value;
+        }
+        String number = Long.toString(value + MAX_VALUES[digits] + 1);
+        return sb.append(number.substring(number.length() - digits)).toString();
+    }
+
+    /**
+     * A growable byte array that is reused for every record. Numbers are
+     * formatted with leading zeros, values that do not fit in the given
+     * number of digits are written as all nines.
+     */
+    private class RecordBuffer {
+
+        byte[] buf;
+
+        int count = 0;
+
+        RecordBuffer(int size) {
+            buf = new byte[size];
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        void ensureCapacity(int length) {
+            if (length > buf.length) {
+                byte[] newBuf = new byte[Math.max(length, buf.length * 2)];
+                System.arraycopy(buf, 0, newBuf, 0, count);
+                buf = newBuf;
+            }
+        }
+
+        void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        void write(byte[] b) {
+            ensureCapacity(count + b.length);
+            System.arraycopy(b, 0, buf, count, b.length);
+            count += b.length;
+        }
+
+        void writeChars(String s) throws IOException {
+            int length = s.length();
+            ensureCapacity(count + length);
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80 || !asciiEncoding) {
+                    write(s.getBytes(encoding));
+                    return;
+                }
+                buf[count + i] = (byte) c;
+            }
+            count += length;
+        }
+
+        void writeChars(char[] c) throws IOException {
+            ensureCapacity(count + c.length);
+            for (int i = 0; i < c.length; i++) {
+                if (c[i] >= 0x80 || !asciiEncoding) {
+                    write(new String(c).getBytes(encoding));
+                    return;
+                }
+                buf[count + i] = (byte) c[i];
+            }
+            count += c.length;
+        }
+
+        /**
+         * Writes the number with the given number of digits, or with as many
+         * digits as needed when <code>digits</code> is 0.
+         */
+        void writeNumber(int value, int digits) throws IOException {
+            if (digits > 0 && value > MAX_VALUES[digits])
+                value = MAX_VALUES[digits];
+            if (value < 0 || !asciiEncoding) {
+                write(formatNumber(value, digits).getBytes(encoding));
+                return;
+            }
+            if (digits == 0)
+                for (int n = value; n > 0 || digits == 0; n /= 10)
+                    digits++;
+            ensureCapacity(count + digits);
+            for (int i = count + digits - 1; i >= count; i--) {
+                buf[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            count += digits;
+        }
+
+    }
+
+}
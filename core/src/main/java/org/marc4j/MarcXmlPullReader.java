@@ -0,0 +1,256 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * An iterator over a collection of MARC records in MARCXML format that pulls
+ * the records from a StAX <code>XMLStreamReader</code>.
+ * <p>
+ * Basic usage:
+ * </p>
+ *
+ * <pre>
+ * InputStream input = new FileInputStream(&quot;file.xml&quot;);
+ * MarcReader reader = new MarcXmlPullReader(input);
+ * while (reader.hasNext()) {
+ *   Record record = reader.next();
+ *   // Process record
+ * }
+ * </pre>
+ *
+ * <p>
+ * Unlike {@link MarcXmlReader}, this reader does not start a parser thread.
+ * Each call to {@link #next()} parses the input up to the end of the next
+ * record on the calling thread, so any number of readers can be open at the
+ * same time without holding a thread each. The records are built the same
+ * way as by {@link MarcXmlReader}.
+ * </p>
+ *
+ * <p>
+ * The source can also be pre-processed with an XSLT stylesheet or a
+ * <code>TransformerHandler</code> that produces MARCXML. Because a
+ * transformation pushes its result, the transformation is run to completion
+ * when the reader is constructed and its complete result is kept in memory
+ * while the records are read from it. Use {@link MarcXmlReader} for
+ * transformations whose result does not fit in memory.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class MarcXmlPullReader implements MarcReader {
+
+  private XMLStreamReader xml;
+
+  private MarcFactory factory = MarcFactory.newInstance();
+
+  private boolean atRecord = false;
+
+  /**
+   * Constructs an instance with the specified input stream.
+   *
+   * @param input
+   *          the input stream
+   */
+  public MarcXmlPullReader(InputStream input) {
+    try {
+      xml = XMLInputFactory.newInstance().createXMLStreamReader(input);
+    } catch (XMLStreamException e) {
+      throw new MarcException("Unable to parse input", e);
+    }
+  }
+
+  /**
+   * Constructs an instance with the specified input stream and stylesheet
+   * source.
+   *
+   * The stylesheet is used to transform the source file and should produce
+   * valid MARCXML records. The complete result of the transformation is kept
+   * in memory.
+   *
+   * @param input
+   *          the input stream
+   * @param stylesheet
+   *          the stylesheet source
+   */
+  public MarcXmlPullReader(InputStream input, Source stylesheet) {
+    this(input, newTransformerHandler(stylesheet));
+  }
+
+  /**
+   * Constructs an instance with the specified input stream and transformer
+   * handler.
+   *
+   * The {@link javax.xml.transform.sax.TransformerHandler}&nbsp;is used to
+   * transform the source file and should produce valid MARCXML records. The
+   * complete result of the transformation is kept in memory.
+   *
+   * @param input
+   *          the input stream
+   * @param th
+   *          the transformation content handler
+   */
+  public MarcXmlPullReader(InputStream input, TransformerHandler th) {
+    this(transform(input, th));
+  }
+
+  /**
+   * Returns true if the iteration has more records, false otherwise.
+   *
+   * @return boolean - true if the iteration has more records, false otherwise
+   */
+  public boolean hasNext() {
+    try {
+      while (!atRecord && xml.hasNext()) {
+        if (xml.next() == XMLStreamConstants.START_ELEMENT
+            && "record".equals(xml.getLocalName()))
+          atRecord = true;
+      }
+      return atRecord;
+    } catch (XMLStreamException e) {
+      throw new MarcException("Unable to parse input", e);
+    }
+  }
+
+  /**
+   * Returns the next record in the iteration.
+   *
+   * @return Record - the record object
+   */
+  public Record next() {
+    if (!hasNext())
+      throw new MarcException("no more records");
+    atRecord = false;
+    try {
+      return parseRecord();
+    } catch (XMLStreamException e) {
+      throw new MarcException("Unable to parse input", e);
+    }
+  }
+
+  /**
+   * Releases the resources of the parser. The input stream is not closed.
+   */
+  public void close() {
+    try {
+      xml.close();
+    } catch (XMLStreamException e) {
+      throw new MarcException("Unable to close parser", e);
+    }
+  }
+
+  /**
+   * Builds a record from the events up to the end of the current
+   * <code>record</code> element.
+   */
+  private Record parseRecord() throws XMLStreamException {
+    Record record = factory.newRecord();
+    DataField dataField = null;
+    while (true) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        String name = xml.getLocalName();
+        if ("record".equals(name))
+          return record;
+        if ("datafield".equals(name) && dataField != null) {
+          record.addVariableField(dataField);
+          dataField = null;
+        }
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = xml.getLocalName();
+        if ("leader".equals(name)) {
+          record.setLeader(factory.newLeader(xml.getElementText()));
+        } else if ("controlfield".equals(name)) {
+          ControlField controlField = factory.newControlField(xml.getAttributeValue(null, "tag"));
+          controlField.setData(xml.getElementText());
+          record.addVariableField(controlField);
+        } else if ("datafield".equals(name)) {
+          dataField = factory.newDataField(xml.getAttributeValue(null, "tag"),
+              indicator(xml.getAttributeValue(null, "ind1")),
+              indicator(xml.getAttributeValue(null, "ind2")));
+        } else if ("subfield".equals(name) && dataField != null) {
+          Subfield subfield = factory.newSubfield(xml.getAttributeValue(null, "code").charAt(0));
+          subfield.setData(xml.getElementText());
+          dataField.addSubfield(subfield);
+        }
+      } else if (event == XMLStreamConstants.END_DOCUMENT) {
+        throw new MarcException("Premature end of file encountered");
+      }
+    }
+  }
+
+  private static char indicator(String value) {
+    if (value == null || value.length() == 0)
+      return ' ';
+    return value.charAt(0);
+  }
+
+  private static TransformerHandler newTransformerHandler(Source stylesheet) {
+    SAXTransformerFactory stf = (SAXTransformerFactory) TransformerFactory.newInstance();
+    try {
+      return stf.newTransformerHandler(stylesheet);
+    } catch (Exception e) {
+      throw new MarcException("Error creating TransformerHandler", e);
+    }
+  }
+
+  /**
+   * Runs the transformation and returns its result as a stream.
+   */
+  private static InputStream transform(InputStream input, TransformerHandler th) {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    th.setResult(new StreamResult(result));
+    try {
+      SAXParserFactory spf = SAXParserFactory.newInstance();
+      spf.setNamespaceAware(true);
+      XMLReader reader = spf.newSAXParser().getXMLReader();
+      reader.setContentHandler(th);
+      reader.parse(new InputSource(input));
+    } catch (Exception e) {
+      throw new MarcException("Unable to parse input", e);
+    }
+    return new ByteArrayInputStream(result.toByteArray());
+  }
+
+}
@@ -100,6 +100,44 @@ public class MarcXmlReader implements MarcReader {
     producer.start();
   }
 
+  /**
+   * Constructs an instance with the specified input stream that hands the
+   * parsed records over in batches of the given size.
+   * 
+   * The records are parsed on a separate thread, which can run ahead of
+   * the consumer by up to <code>capacity</code> batches.
+   * 
+   * @param input
+   *          the input stream
+   * @param batchSize
+   *          the number of records handed over at a time
+   * @param capacity
+   *          the number of batches the parser can run ahead
+   */
+  public MarcXmlReader(InputStream input, int batchSize, int capacity) {
+    this(new InputSource(input), batchSize, capacity);
+  }
+
+  /**
+   * Constructs an instance with the specified input source that hands the
+   * parsed records over in batches of the given size.
+   * 
+   * The records are parsed on a separate thread, which can run ahead of
+   * the consumer by up to <code>capacity</code> batches.
+   * 
+   * @param input
+   *          the input source
+   * @param batchSize
+   *          the number of records handed over at a time
+   * @param capacity
+   *          the number of batches the parser can run ahead
+   */
+  public MarcXmlReader(InputSource input, int batchSize, int capacity) {
+    this.queue = new RecordStack(batchSize, capacity);
+    MarcXmlParserThread producer = new MarcXmlParserThread(queue, input);
+    producer.start();
+  }
+
   /**
    * Constructs an instance with the specified input stream and stylesheet
    * location.
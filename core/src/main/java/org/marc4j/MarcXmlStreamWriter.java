@@ -0,0 +1,357 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.marc4j.util.Normalizer;
+
+/**
+ * Class for writing MARC record objects in MARCXML format directly to an
+ * output stream in UTF-8 encoding.
+ *
+ * <p>
+ * Unlike {@link MarcXmlWriter}, this class does not produce SAX events for a
+ * JAXP <code>TransformerHandler</code>. It escapes the data and encodes it as
+ * UTF-8 into a buffer that is reused for all records, which makes it
+ * considerably faster. The output is the same as the output of
+ * {@link MarcXmlWriter} writing to an <code>OutputStream</code> in UTF-8.
+ * Use {@link MarcXmlWriter} to post-process the result with a stylesheet or
+ * to write to a <code>Result</code> object.
+ * </p>
+ *
+ * <p>
+ * The following example reads a file with MARC records and writes MARCXML
+ * records to the console:
+ * </p>
+ *
+ * <pre>
+ *      InputStream input = new FileInputStream(&quot;input.mrc&quot;)
+ *      MarcReader reader = new MarcStreamReader(input);
+ *      MarcWriter writer = new MarcXmlStreamWriter(System.out, true);
+ *      writer.setConverter(new AnselToUnicode());
+ *      while (reader.hasNext()) {
+ *          Record record = reader.next();
+ *          writer.write(record);
+ *      }
+ *      writer.close();
+ * </pre>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class MarcXmlStreamWriter implements MarcWriter {
+
+    private OutputStream out;
+
+    private boolean indent = false;
+
+    private CharConverter converter = null;
+
+    private boolean normalize = false;
+
+    private byte[] buf = new byte[8192];
+
+    private int count = 0;
+
+    /**
+     * Constructs an instance with the specified output stream.
+     */
+    public MarcXmlStreamWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    /**
+     * Constructs an instance with the specified output stream and indentation.
+     */
+    public MarcXmlStreamWriter(OutputStream out, boolean indent) {
+        if (out == null)
+            throw new NullPointerException("null OutputStream");
+        this.out = out;
+        this.indent = indent;
+        writeAscii("<?xml version=\"1.0\" encoding=\"UTF-8\"?><collection xmlns=\"");
+        writeAscii(Constants.MARCXML_NS_URI);
+        writeAscii("\">");
+    }
+
+    /**
+     * Returns the character converter.
+     *
+     * @return CharConverter the character converter
+     */
+    public CharConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Sets the character converter.
+     *
+     * @param converter
+     *            the character converter
+     */
+    public void setConverter(CharConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * If set to true this writer will perform Unicode normalization on data
+     * elements using normalization form C (NFC), in the same way as
+     * {@link MarcXmlWriter#setUnicodeNormalization(boolean)}. The default is
+     * false.
+     *
+     * @param normalize
+     *            true if this writer performs Unicode normalization, false
+     *            otherwise
+     */
+    public void setUnicodeNormalization(boolean normalize) {
+        this.normalize = normalize;
+    }
+
+    /**
+     * Returns true if this writer will perform Unicode normalization, false
+     * otherwise.
+     *
+     * @return boolean - true if this writer performs Unicode normalization,
+     *         false otherwise.
+     */
+    public boolean getUnicodeNormalization() {
+        return normalize;
+    }
+
+    /**
+     * Returns true if indentation is active, false otherwise.
+     *
+     * @return boolean
+     */
+    public boolean hasIndent() {
+        return indent;
+    }
+
+    /**
+     * Activates or deactivates indentation. Default value is false.
+     *
+     * @param indent
+     */
+    public void setIndent(boolean indent) {
+        this.indent = indent;
+    }
+
+    /**
+     * Writes a Record object to the output stream.
+     *
+     * @param record -
+     *            the <code>Record</code> object
+     */
+    public void write(Record record) {
+        if (indent)
+            writeAscii("\n  ");
+        writeAscii("<record>");
+        if (indent)
+            writeAscii("\n    ");
+        writeAscii("<leader>");
+        writeText(record.getLeader().toString(), false);
+        writeAscii("</leader>");
+
+        Iterator i = record.getControlFields().iterator();
+        while (i.hasNext()) {
+            ControlField field = (ControlField) i.next();
+            if (indent)
+                writeAscii("\n    ");
+            writeAscii("<controlfield tag=\"");
+            writeText(field.getTag(), true);
+            writeAscii("\">");
+            writeText(getDataElement(field.getData()), false);
+            writeAscii("</controlfield>");
+        }
+
+        i = record.getDataFields().iterator();
+        while (i.hasNext()) {
+            DataField field = (DataField) i.next();
+            if (indent)
+                writeAscii("\n    ");
+            writeAscii("<datafield tag=\"");
+            writeText(field.getTag(), true);
+            writeAscii("\" ind1=\"");
+            writeChar(field.getIndicator1(), true);
+            writeAscii("\" ind2=\"");
+            writeChar(field.getIndicator2(), true);
+            writeAscii("\">");
+            Iterator j = field.getSubfields().iterator();
+            while (j.hasNext()) {
+                Subfield subfield = (Subfield) j.next();
+                if (indent)
+                    writeAscii("\n      ");
+                writeAscii("<subfield code=\"");
+                writeChar(subfield.getCode(), true);
+                writeAscii("\">");
+                writeText(getDataElement(subfield.getData()), false);
+                writeAscii("</subfield>");
+            }
+            if (indent)
+                writeAscii("\n    ");
+            writeAscii("</datafield>");
+        }
+
+        if (indent)
+            writeAscii("\n  ");
+        writeAscii("</record>");
+    }
+
+    /**
+     * Writes the root end tag and closes the output stream.
+     */
+    public void close() {
+        if (indent)
+            writeAscii("\n");
+        writeAscii("</collection>");
+        try {
+            flushBuffer();
+            out.close();
+        } catch (IOException e) {
+            throw new MarcException(e.getMessage(), e);
+        }
+    }
+
+    protected String getDataElement(String data) {
+        if (converter == null)
+            return data;
+        String dataElement = converter.convert(data);
+        if (normalize)
+            dataElement = Normalizer.normalize(dataElement, Normalizer.NFC);
+        return dataElement;
+    }
+
+    /**
+     * Writes markup that consists of ASCII characters only.
+     */
+    private void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+            buf[count++] = (byte) s.charAt(i);
+    }
+
+    /**
+     * Writes escaped character data or attribute values in UTF-8. Characters
+     * that cannot appear literally are written as character references, in
+     * the same way as the JAXP serializer used by {@link MarcXmlWriter}.
+     */
+    private void writeText(String s, boolean attribute) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x7f && c != '&' && c != '<' && c != '>' && c != '"') {
+                // the common case
+                ensureCapacity(1);
+                buf[count++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                writeReference(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                writeChar(c, attribute);
+            }
+        }
+    }
+
+    private void writeChar(char c, boolean attribute) {
+        switch (c) {
+        case '&':
+            writeAscii("&amp;");
+            break;
+        case '<':
+            writeAscii("&lt;");
+            break;
+        case '>':
+            writeAscii("&gt;");
+            break;
+        case '"':
+            if (attribute)
+                writeAscii("&quot;");
+            else
+                writeUtf8(c);
+            break;
+        case '\t':
+        case '\n':
+            if (attribute)
+                writeReference(c);
+            else
+                writeUtf8(c);
+            break;
+        default:
+            if (c < 0x20 || (c >= 0x7f && c <= 0x9f))
+                writeReference(c);
+            else if (c >= 0xd800 && c <= 0xdfff)
+                throw new MarcException("Invalid UTF-16 surrogate detected: "
+                        + Integer.toHexString(c));
+            else
+                writeUtf8(c);
+        }
+    }
+
+    private void writeReference(int codePoint) {
+        writeAscii("&#");
+        writeAscii(Integer.toString(codePoint));
+        writeAscii(";");
+    }
+
+    private void writeUtf8(char c) {
+        ensureCapacity(3);
+        if (c < 0x80) {
+            buf[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    /**
+     * Makes room for <code>length</code> more bytes, writing the buffer to
+     * the output stream when it is full.
+     */
+    private void ensureCapacity(int length) {
+        if (count + length <= buf.length)
+            return;
+        try {
+            flushBuffer();
+        } catch (IOException e) {
+            throw new MarcException("IO Error occured while writing record", e);
+        }
+        if (length > buf.length)
+            buf = new byte[length];
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buf, 0, count);
+        count = 0;
+    }
+
+}
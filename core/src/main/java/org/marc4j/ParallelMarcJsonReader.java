@@ -0,0 +1,240 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+import org.marc4j.util.JsonParser;
+import org.marc4j.util.JsonTokenizer;
+
+/**
+ * An iterator over newline-delimited MARC-in-JSON records that parses the
+ * records on a pool of worker threads.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * InputStream input = new FileInputStream(&quot;file.ndjson&quot;);
+ * ParallelMarcJsonReader reader = new ParallelMarcJsonReader(input, 8);
+ * while (reader.hasNext()) {
+ *     Record record = reader.next();
+ *     // Process record
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * <p>
+ * The input holds one MARC-in-JSON record per line, in UTF-8, as written by
+ * {@link MarcJsonWriter} with the {@link MarcJsonWriter#NDJSON} format. Blank
+ * lines are skipped. The thread calling {@link #next()} only splits the input
+ * into lines and hands each one to the executor, where it is parsed with a
+ * strict {@link JsonTokenizer} the same way as by a {@link MarcJsonReader}
+ * in strict mode. At most a fixed number of records is in flight at any
+ * time. Because every line is a complete record, such files can also be
+ * split at any line break and the parts read independently.
+ * </p>
+ *
+ * <p>
+ * In ordered mode (the default) the records are returned in the order in
+ * which they appear in the input. In unordered mode each record is returned
+ * as soon as it has been parsed.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ *
+ */
+public class ParallelMarcJsonReader extends AbstractParallelReader {
+
+    private InputStream input;
+
+    private byte[] buf = new byte[65536];
+
+    private int pos = 0;
+
+    private int limit = 0;
+
+    private long lineNumber = 0;
+
+    private ThreadLocal factories = new ThreadLocal() {
+        protected Object initialValue() {
+            return MarcFactory.newInstance();
+        }
+    };
+
+    /**
+     * Constructs an instance with the specified input stream that parses
+     * records on the given number of threads and returns them in input order.
+     *
+     * <p>
+     * The threads are created by the reader and stopped by {@link #close()}.
+     * </p>
+     *
+     * @param input the input stream
+     * @param threadCount the number of worker threads
+     */
+    public ParallelMarcJsonReader(InputStream input, int threadCount) {
+        this(input, threadCount, true);
+    }
+
+    /**
+     * Constructs an instance with the specified input stream that parses
+     * records on the given number of threads.
+     *
+     * <p>
+     * The threads are created by the reader and stopped by {@link #close()}.
+     * </p>
+     *
+     * @param input the input stream
+     * @param threadCount the number of worker threads
+     * @param ordered true to return the records in input order
+     */
+    public ParallelMarcJsonReader(InputStream input, int threadCount, boolean ordered) {
+        this(input, newThreadPool(threadCount), ordered, threadCount * 4);
+        shutdownExecutor = true;
+    }
+
+    /**
+     * Constructs an instance with the specified input stream that parses
+     * records with the given executor.
+     *
+     * <p>
+     * The executor is not shut down by {@link #close()}.
+     * </p>
+     *
+     * @param input the input stream
+     * @param executor the executor that parses the records
+     * @param ordered true to return the records in input order
+     * @param maxPending the maximum number of records read from the input
+     *            but not yet returned by {@link #next()}
+     */
+    public ParallelMarcJsonReader(InputStream input, ExecutorService executor,
+            boolean ordered, int maxPending) {
+        super(executor, ordered, maxPending);
+        this.input = input;
+    }
+
+    Object readChunk() {
+        while (true) {
+            byte[] line = readLine();
+            if (line == null)
+                return null;
+            lineNumber++;
+            if (!isBlank(line))
+                return new Line(line, lineNumber);
+        }
+    }
+
+    Record decodeChunk(Object chunk) {
+        Line line = (Line) chunk;
+        return parse(line.data, (MarcFactory) factories.get(), line.number);
+    }
+
+    /**
+     * Parses the single record on a line.
+     */
+    static Record parse(byte[] line, MarcFactory factory, long number) {
+        MarcJsonReader reader = new MarcJsonReader(new JsonTokenizer(line, 0, line.length), factory);
+        try {
+            Record record = reader.next();
+            if (reader.hasNext())
+                throw new MarcException("more than one record on line " + number);
+            return record;
+        } catch (JsonParser.Escape e) {
+            throw new MarcException("malformed record on line " + number + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the bytes of the next line without the line break, or
+     * <code>null</code> at the end of the input.
+     */
+    private byte[] readLine() {
+        int scan = pos;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buf[scan] == '\n') {
+                    byte[] line = new byte[scan - pos];
+                    System.arraycopy(buf, pos, line, 0, line.length);
+                    pos = scan + 1;
+                    return line;
+                }
+            }
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                scan -= pos;
+                pos = 0;
+            }
+            if (limit == buf.length) {
+                byte[] newBuf = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, limit);
+                buf = newBuf;
+            }
+            int count;
+            try {
+                count = input.read(buf, limit, buf.length - limit);
+            } catch (IOException e) {
+                throw new MarcException("an error occured reading input", e);
+            }
+            if (count < 0) {
+                if (limit == pos)
+                    return null;
+                // the last line has no line break
+                byte[] line = new byte[limit - pos];
+                System.arraycopy(buf, pos, line, 0, line.length);
+                pos = limit;
+                return line;
+            }
+            limit += count;
+        }
+    }
+
+    private static boolean isBlank(byte[] line) {
+        for (int i = 0; i < line.length; i++) {
+            byte b = line[i];
+            if (b != ' ' && b != '\t' && b != '\r')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The bytes of a line and its line number.
+     */
+    private static class Line {
+
+        private byte[] data;
+
+        private long number;
+
+        Line(byte[] data, long number) {
+            this.data = data;
+            this.number = number;
+        }
+
+    }
+
+}
@@ -0,0 +1,200 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+/**
+ * An iterator over a collection of MARC records in ISO 2709 format that
+ * decodes the records on a pool of worker threads.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * InputStream input = new FileInputStream(&quot;file.mrc&quot;);
+ * ParallelMarcReader reader = new ParallelMarcReader(input, 8);
+ * while (reader.hasNext()) {
+ *     Record record = reader.next();
+ *     // Process record
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * <p>
+ * The thread calling {@link #next()} only carves the raw records out of the
+ * input stream, using the record length in the leader, and hands each one to
+ * the executor. The expensive part, decoding the directory, converting the
+ * character data and building the fields, is done by the worker threads the
+ * same way as by {@link MarcStreamReader}. At most a fixed number of records
+ * is in flight at any time, so a slow consumer does not cause the whole file
+ * to be read into memory.
+ * </p>
+ *
+ * <p>
+ * In ordered mode (the default) the records are returned in the order in
+ * which they appear in the input. In unordered mode each record is returned
+ * as soon as it has been decoded, which keeps all workers busy when some
+ * records take much longer to decode than others.
+ * </p>
+ *
+ * <p>
+ * When no encoding is given as an constructor argument the parser tries to
+ * resolve the encoding by looking at the character coding scheme (leader
+ * position 9) in MARC21 records. For UNIMARC records this position is not
+ * defined.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ *
+ */
+public class ParallelMarcReader extends AbstractParallelReader {
+
+    private DataInputStream input;
+
+    private MarcRecordParser encodingResolver;
+
+    private ThreadLocal parsers = new ThreadLocal() {
+        protected Object initialValue() {
+            return new MarcRecordParser(MarcFactory.newInstance(), null);
+        }
+    };
+
+    /**
+     * Constructs an instance with the specified input stream that decodes
+     * records on the given number of threads and returns them in input order.
+     *
+     * <p>
+     * The threads are created by the reader and stopped by {@link #close()}.
+     * </p>
+     *
+     * @param input the input stream
+     * @param threadCount the number of worker threads
+     */
+    public ParallelMarcReader(InputStream input, int threadCount) {
+        this(input, null, threadCount, true);
+    }
+
+    /**
+     * Constructs an instance with the specified input stream and encoding that
+     * decodes records on the given number of threads.
+     *
+     * <p>
+     * The threads are created by the reader and stopped by {@link #close()}.
+     * </p>
+     *
+     * @param input the input stream
+     * @param encoding the encoding of the data elements or <code>null</code>
+     * @param threadCount the number of worker threads
+     * @param ordered true to return the records in input order
+     */
+    public ParallelMarcReader(InputStream input, String encoding, int threadCount, boolean ordered) {
+        this(input, encoding, newThreadPool(threadCount), ordered, threadCount * 4);
+        shutdownExecutor = true;
+    }
+
+    /**
+     * Constructs an instance with the specified input stream and encoding that
+     * decodes records with the given executor.
+     *
+     * <p>
+     * The executor is not shut down by {@link #close()}.
+     * </p>
+     *
+     * @param input the input stream
+     * @param encoding the encoding of the data elements or <code>null</code>
+     * @param executor the executor that decodes the records
+     * @param ordered true to return the records in input order
+     * @param maxPending the maximum number of records read from the input
+     *            but not yet returned by {@link #next()}
+     */
+    public ParallelMarcReader(InputStream input, String encoding, ExecutorService executor,
+            boolean ordered, int maxPending) {
+        super(executor, ordered, maxPending);
+        this.input = new DataInputStream((input.markSupported()) ? input : new BufferedInputStream(input));
+        this.encodingResolver = new MarcRecordParser(MarcFactory.newInstance(), encoding);
+    }
+
+    Object readChunk() {
+        byte[] raw = readRawRecord();
+        if (raw == null)
+            return null;
+        // resolved in input order, so a record without a known coding
+        // scheme gets the same encoding as with MarcStreamReader
+        return new RawRecord(raw, encodingResolver.resolveEncoding(raw));
+    }
+
+    Record decodeChunk(Object chunk) {
+        RawRecord raw = (RawRecord) chunk;
+        MarcRecordParser parser = (MarcRecordParser) parsers.get();
+        return parser.parse(raw.data, raw.data.length, raw.encoding);
+    }
+
+    /**
+     * Returns the bytes of the next record, or <code>null</code> at the end
+     * of the input.
+     */
+    private byte[] readRawRecord() {
+        try {
+            input.mark(10);
+            if (input.read() == -1)
+                return null;
+            input.reset();
+
+            byte[] leader = new byte[MarcRecordParser.LEADER_LENGTH];
+            input.readFully(leader);
+            int recordLength = MarcRecordParser.parseRecordLength(leader, 0);
+            byte[] raw = new byte[recordLength];
+            System.arraycopy(leader, 0, raw, 0, leader.length);
+            input.readFully(raw, leader.length, recordLength - leader.length);
+            return raw;
+        } catch (EOFException e) {
+            throw new MarcException("Premature end of file encountered", e);
+        } catch (IOException e) {
+            throw new MarcException("an error occured reading input", e);
+        }
+    }
+
+    /**
+     * The bytes of a record and the encoding of its data elements.
+     */
+    private static class RawRecord {
+
+        private byte[] data;
+
+        private String encoding;
+
+        RawRecord(byte[] data, String encoding) {
+            this.data = data;
+            this.encoding = encoding;
+        }
+
+    }
+
+}
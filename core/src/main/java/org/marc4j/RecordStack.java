@@ -23,6 +23,8 @@ package org.marc4j;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.marc4j.marc.Record;
 
@@ -30,12 +32,39 @@ import org.marc4j.marc.Record;
  * Provides <code>push</code> and <code>pop</code> operations for
  * <code>Record</code> objects created by <code>MarcXmlParser</code>.
  * 
+ * <p>
+ * Records are handed from the producer to the consumer in batches through a
+ * bounded queue, so the producer can run ahead of the consumer by up to
+ * <code>capacity</code> batches of <code>batchSize</code> records before
+ * <code>push</code> blocks. The methods <code>push</code>,
+ * <code>passException</code> and <code>end</code> are called by a single
+ * producer thread, <code>hasNext</code> and <code>pop</code> by a single
+ * consumer thread.
+ * </p>
+ * 
  * @author Bas Peters
  * @version $Revision$
  */
 public class RecordStack {
 
-  private List list;
+  /** The default number of records handed over at a time */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  /** The default number of batches the producer can run ahead */
+  public static final int DEFAULT_CAPACITY = 4;
+
+  private static final Object END = new Object();
+
+  private BlockingQueue queue;
+  private int batchSize;
+
+  // producer side
+  private List batch;
+  private boolean ended = false;
+
+  // consumer side
+  private List current = new ArrayList();
+  private int index = 0;
   private RuntimeException re = null;
   private boolean eof = false;
 
@@ -44,7 +73,25 @@ public class RecordStack {
    *  
    */
   public RecordStack() {
-    list = new ArrayList();
+    this(DEFAULT_BATCH_SIZE, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a stack that hands over records in batches of the given size
+   * and holds at most the given number of batches.
+   * 
+   * @param batchSize
+   *          the number of records handed over at a time
+   * @param capacity
+   *          the number of batches the producer can run ahead of the
+   *          consumer
+   */
+  public RecordStack(int batchSize, int capacity) {
+    if (batchSize < 1 || capacity < 1)
+      throw new IllegalArgumentException("batch size and capacity must be at least 1");
+    this.batchSize = batchSize;
+    this.queue = new ArrayBlockingQueue(capacity);
+    this.batch = new ArrayList(batchSize);
   }
 
   /**
@@ -53,15 +100,10 @@ public class RecordStack {
    * @param record
    *          the record object
    */
-  public synchronized void push(Record record) {
-    while (list.size() > 0) {
-      try {
-        wait();
-      } catch (Exception e) {
-      }
-    }
-    list.add(record);
-    notifyAll();
+  public void push(Record record) {
+    batch.add(record);
+    if (batch.size() >= batchSize)
+      flush();
   }
 
   /**
@@ -70,20 +112,15 @@ public class RecordStack {
    * 
    * @return Record - the record object
    */
-  public synchronized Record pop() {
-    while (list.size() <= 0 && (eof != true)) {
-      try {
-        wait();
-      } catch (Exception e) {
-      }
+  public Record pop() {
+    fill();
+    if (index < current.size()) {
+      Record record = (Record) current.get(index);
+      current.set(index++, null);
+      return record;
     }
     if (re != null) throw(re);
-    Record record = null;
-    if (list.size() > 0)
-      record = (Record) list.remove(0);
-    notifyAll();
-    return record;
-
+    return null;
   }
 
   /**
@@ -92,46 +129,89 @@ public class RecordStack {
    * 
    * @return boolean
    */
-  public synchronized boolean hasNext() {
-    while (list.size() <= 0 && (eof != true)) {
-      try {
-        wait();
-      } catch (Exception e) {
-      }
-    }
-    if (re != null) throw(re);
-    if (!isEmpty() || !eof)
+  public boolean hasNext() {
+    fill();
+    if (index < current.size())
       return true;
+    if (re != null) throw(re);
     return false;
   }
 
   /**
    * Passes the exception to the thread where the MarcXMLReader is running, so that the  next() call
    * that is blocked waiting for this thread, will receive the exception.
+   * The records pushed before the exception are returned first.
    *  
    */
-  public synchronized void passException(RuntimeException e) {
-    re = e;
-    eof = true;
-    notifyAll();
+  public void passException(RuntimeException e) {
+    if (ended)
+      return;
+    flush();
+    put(e);
+    ended = true;
   }
 
   /**
    * Called when the end of the document is reached.
    *  
    */
-  public synchronized void end() {
-    eof = true;
-    notifyAll();
+  public void end() {
+    if (ended)
+      return;
+    flush();
+    put(END);
+    ended = true;
   }
 
   /**
-   * Returns true if the queue is empty, false otherwise.
-   * 
-   * @return boolean
+   * Hands the current batch over to the consumer.
+   */
+  private void flush() {
+    if (batch.size() == 0)
+      return;
+    put(batch);
+    batch = new ArrayList(batchSize);
+  }
+
+  private void put(Object o) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        queue.put(o);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Takes the next batch from the queue when the current batch is used up.
    */
-  private synchronized boolean isEmpty() {
-    return (list.size() == 0 ? true : false);
+  private void fill() {
+    boolean interrupted = false;
+    while (index >= current.size() && !eof) {
+      Object o;
+      try {
+        o = queue.take();
+      } catch (InterruptedException e) {
+        interrupted = true;
+        continue;
+      }
+      if (o == END) {
+        eof = true;
+      } else if (o instanceof RuntimeException) {
+        re = (RuntimeException) o;
+        eof = true;
+      } else {
+        current = (List) o;
+        index = 0;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,195 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the fields, and optionally the subfields, that a reader decodes.
+ * <p>
+ * A filter is either an allow-list, accepting only the given tags, or a
+ * deny-list, accepting every tag except the given ones. The letter
+ * <code>X</code> can be used as a wildcard for a digit, so <code>9XX</code>
+ * matches all local fields. Readers that support a filter skip the directory
+ * entries of fields that are not accepted without creating any objects for
+ * them or converting their data.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * MarcStreamReader reader = new MarcStreamReader(input);
+ * TagFilter filter = new TagFilter(new String[] { &quot;001&quot;, &quot;245&quot;, &quot;650&quot; }, true);
+ * filter.setSubfieldCodes(&quot;650&quot;, &quot;av&quot;);
+ * reader.setTagFilter(filter);
+ * </pre>
+ *
+ * <p>
+ * The record length in the leader of a filtered record still reflects the
+ * record as it was read.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class TagFilter {
+
+    private boolean include;
+
+    private boolean[] numericTags = new boolean[1000];
+
+    private Set otherTags = new HashSet();
+
+    private String[] numericSubfieldCodes = new String[1000];
+
+    private Map otherSubfieldCodes = new HashMap();
+
+    /**
+     * Creates a filter for the given tags.
+     *
+     * @param tags
+     *            the tags, where <code>X</code> matches any digit
+     * @param include
+     *            true to accept only the given tags, false to accept every
+     *            tag except the given tags
+     */
+    public TagFilter(String[] tags, boolean include) {
+        this.include = include;
+        for (int i = 0; i < tags.length; i++) {
+            String tag = tags[i];
+            if (isPattern(tag)) {
+                for (int number = 0; number < 1000; number++)
+                    if (matches(tag, number))
+                        numericTags[number] = true;
+            } else
+                otherTags.add(tag);
+        }
+    }
+
+    /**
+     * Restricts the subfields that are decoded for the given tag to the given
+     * subfield codes. The other subfields of fields with that tag are skipped.
+     *
+     * @param tag
+     *            the tag, where <code>X</code> matches any digit
+     * @param codes
+     *            the subfield codes to keep
+     */
+    public void setSubfieldCodes(String tag, String codes) {
+        if (isPattern(tag)) {
+            for (int i = 0; i < 1000; i++)
+                if (matches(tag, i))
+                    numericSubfieldCodes[i] = codes;
+        } else {
+            otherSubfieldCodes.put(tag, codes);
+        }
+    }
+
+    /**
+     * Returns true if fields with the given tag are accepted.
+     *
+     * @param tag
+     *            the tag
+     * @return boolean - true if the field is accepted
+     */
+    public boolean acceptsTag(String tag) {
+        int number = tagNumber(tag);
+        if (number >= 0)
+            return numericTags[number] == include;
+        return otherTags.contains(tag) == include;
+    }
+
+    /**
+     * Returns true if subfields with the given code are accepted in a field
+     * with the given tag.
+     *
+     * @param tag
+     *            the tag
+     * @param code
+     *            the subfield code
+     * @return boolean - true if the subfield is accepted
+     */
+    public boolean acceptsSubfield(String tag, char code) {
+        int number = tagNumber(tag);
+        String codes = (number >= 0) ? numericSubfieldCodes[number]
+                : (String) otherSubfieldCodes.get(tag);
+        return codes == null || codes.indexOf(code) != -1;
+    }
+
+    /**
+     * Returns true if fields with the tag stored in the three bytes at the
+     * given offset are accepted, without creating a <code>String</code> for
+     * numeric tags.
+     */
+    boolean acceptsTag(byte[] buf, int offset) {
+        int d1 = buf[offset] - '0';
+        int d2 = buf[offset + 1] - '0';
+        int d3 = buf[offset + 2] - '0';
+        if (d1 >= 0 && d1 <= 9 && d2 >= 0 && d2 <= 9 && d3 >= 0 && d3 <= 9)
+            return numericTags[d1 * 100 + d2 * 10 + d3] == include;
+        return acceptsTag(new String(buf, offset, 3, MarcRecordParser.ISO_8859_1));
+    }
+
+    /**
+     * Returns the value of a three digit tag, or -1 if the tag is not
+     * numeric.
+     */
+    private static int tagNumber(String tag) {
+        if (tag.length() != 3)
+            return -1;
+        int number = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = tag.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Returns true if the tag consists of three digits or wildcards.
+     */
+    private static boolean isPattern(String tag) {
+        if (tag.length() != 3)
+            return false;
+        for (int i = 0; i < 3; i++) {
+            char c = tag.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != 'X' && c != 'x')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String pattern, int number) {
+        for (int i = 2; i >= 0; i--, number /= 10) {
+            char c = pattern.charAt(i);
+            if (c != 'X' && c != 'x' && c - '0' != number % 10)
+                return false;
+        }
+        return true;
+    }
+
+}
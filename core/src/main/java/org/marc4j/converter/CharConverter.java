@@ -49,10 +49,26 @@ public abstract class CharConverter {
     */
     final public String convert(byte[] dataElement) 
     {
-        char cData[] = new char[dataElement.length];
-        for (int i = 0; i < dataElement.length; i++)
+        return convert(dataElement, 0, dataElement.length);
+    }
+
+   /**
+    * Alternate method for performing a character conversion on a part of a byte array, 
+    * so that callers that keep a whole record in a single buffer do not need to copy 
+    * each data element out first.  The default implementation converts the bytes to 
+    * characters and calls the above convert method which must be implemented in the subclass.
+    * 
+    * @param dataElement the buffer holding the data to convert
+    * @param offset the index of the first byte to convert
+    * @param length the number of bytes to convert
+    * @return String the conversion result
+    */
+    public String convert(byte[] dataElement, int offset, int length) 
+    {
+        char cData[] = new char[length];
+        for (int i = 0; i < length; i++)
         {
-            byte b = dataElement[i];
+            byte b = dataElement[offset + i];
             cData[i] =  (char)(b >= 0 ? b : 256 + b);
         }
         return convert(cData);
@@ -20,9 +20,10 @@
  */
 package org.marc4j.converter.impl;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.util.Vector;
+import java.nio.charset.Charset;
 
 import org.marc4j.ErrorHandler;
 import org.marc4j.MarcException;
@@ -44,50 +45,6 @@ import org.marc4j.converter.CharConverter;
  */
 public class AnselToUnicode extends CharConverter {
 
-    class Queue extends Vector {
-
-        /**
-         * Puts an item into the queue.
-         * 
-         * @param item
-         *            the item to be put into the queue.
-         */
-        public Object put(Object item) {
-            addElement(item);
-
-            return item;
-        }
-
-        /**
-         * Gets an item from the front of the queue.
-         */
-        public Object get() {
-            Object obj;
-            int len = size();
-
-            obj = peek();
-            removeElementAt(0);
-
-            return obj;
-        }
-
-        /**
-         * Peeks at the front of the queue.
-         */
-        public Object peek() {
-            int len = size();
-
-            return elementAt(0);
-        }
-
-        /**
-         * Returns true if the queue is empty.
-         */
-        public boolean empty() {
-            return size() == 0;
-        }
-    }
-
     class CodeTracker {
         int offset;
 
@@ -104,11 +61,20 @@ public class AnselToUnicode extends CharConverter {
         }
     }
 
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
     protected CodeTableInterface ct;
 
     protected boolean loadedMultibyte = false;
 
     protected ErrorHandler errorList = null;
+
+    // the bytes below 0x80 that convert to themselves, for the code table
+    // they were computed from
+    private boolean[] asciiIdentity = null;
+
+    private CodeTableInterface asciiIdentityTable = null;
+
     /**
      * Creates a new instance and loads the MARC4J supplied
      * conversion tables based on the official LC tables.
@@ -151,31 +117,14 @@ public class AnselToUnicode extends CharConverter {
     }
 
 
+    /**
+     * Returns the shared code table, which is the generated table when the
+     * build has created one.
+     */
     private CodeTableInterface loadGeneratedTable(boolean loadMultibyte) 
     {
-        try
-        {
-            Class generated = Class.forName("org.marc4j.converter.impl.CodeTableGenerated");
-            Constructor cons = generated.getConstructor();
-            Object ct = cons.newInstance();
-            loadedMultibyte = true;
-            return((CodeTableInterface)ct);
-        }
-        catch (Exception e)
-        {
-            CodeTableInterface ct;
-            if (loadMultibyte)
-            {
-                ct = new CodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml"));                
-            }
-            else
-            {
-                ct = new CodeTable(AnselToUnicode.class.getResourceAsStream("codetablesnocjk.xml"));
-            }
-            loadedMultibyte = loadMultibyte;
-            return(ct);
-         }
-
+        loadedMultibyte = loadMultibyte || CodeTables.isMultibyteAlwaysLoaded();
+        return(CodeTables.getCodeTable(loadMultibyte));
     }
     
     /**
@@ -188,7 +137,16 @@ public class AnselToUnicode extends CharConverter {
      *  
      */
     public AnselToUnicode(String pathname) {
-        ct = new CodeTable(pathname);
+        try {
+            InputStream in = new FileInputStream(pathname);
+            try {
+                ct = new CompactCodeTable(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new MarcException(e.getMessage(), e);
+        }
         loadedMultibyte = true;
     }
 
@@ -202,7 +160,7 @@ public class AnselToUnicode extends CharConverter {
      *  
      */
     public AnselToUnicode(InputStream in) {
-        ct = new CodeTable(in);
+        ct = new CompactCodeTable(in);
         loadedMultibyte = true;
     }
 
@@ -211,8 +169,7 @@ public class AnselToUnicode extends CharConverter {
      * of Congress.
      */
     private void loadMultibyte() {
-        ct = new CodeTable(getClass().getResourceAsStream(
-                "codetables.xml"));
+        ct = CodeTables.getCodeTable(true);
     }
 
     private void checkMode(char[] data, CodeTracker cdt) {
@@ -375,13 +332,84 @@ public class AnselToUnicode extends CharConverter {
      * Converts MARC-8 data to UCS/Unicode.
      * </p>
      * 
+     * <p>
+     * Data that consists only of ASCII characters that do not need to be
+     * converted is returned as is.
+     * </p>
+     * 
      * @param data -  the MARC-8 data in an array of char
      * @return String - the UCS/Unicode data
      */
     public String convert(char  data[]) 
     {
-        StringBuffer sb = new StringBuffer();
+        boolean[] identity = getAsciiIdentity();
+        for (int i = 0; i < data.length; i++)
+        {
+            char c = data[i];
+            if (c >= 0x80 || !identity[c])
+                return convertMarc8(data);
+        }
+        return new String(data);
+    }
+
+    /**
+     * <p>
+     * Converts MARC-8 data in a part of a byte array to UCS/Unicode.
+     * </p>
+     * 
+     * <p>
+     * The bytes are scanned once. When they are all ASCII characters that do
+     * not need to be converted they are returned as is, otherwise they are
+     * converted like {@link #convert(char[])}.
+     * </p>
+     * 
+     * @param data the buffer holding the data to convert
+     * @param offset the index of the first byte to convert
+     * @param length the number of bytes to convert
+     * @return String - the UCS/Unicode data
+     */
+    public String convert(byte[] data, int offset, int length) 
+    {
+        boolean[] identity = getAsciiIdentity();
+        for (int i = 0; i < length; i++)
+        {
+            int c = data[offset + i];
+            if (c < 0 || !identity[c])
+            {
+                char[] chars = new char[length];
+                for (int j = 0; j < length; j++)
+                    chars[j] = (char) (data[offset + j] & 0xFF);
+                return convertMarc8(chars);
+            }
+        }
+        return new String(data, offset, length, ISO_8859_1);
+    }
+
+    /**
+     * Returns which characters below 0x80 convert to themselves in the
+     * default character sets, outside of escape sequences.
+     */
+    private boolean[] getAsciiIdentity()
+    {
+        if (asciiIdentityTable != ct)
+        {
+            boolean[] identity = new boolean[0x80];
+            for (int c = 0; c < 0x80; c++)
+            {
+                // 0 is also returned for characters without a mapping
+                identity[c] = c != 0 && c != 0x1B && getChar(c, 0x42, 0x45) == c
+                        && !ct.isCombining(c, 0x42, 0x45);
+            }
+            asciiIdentity = identity;
+            asciiIdentityTable = ct;
+        }
+        return asciiIdentity;
+    }
+
+    private String convertMarc8(char data[]) 
+    {
         int len = data.length;
+        StringBuilder sb = new StringBuilder(len + 16);
 
         CodeTracker cdt = new CodeTracker();
 
@@ -393,7 +421,8 @@ public class AnselToUnicode extends CharConverter {
 
         checkMode(data, cdt);
 
-        Queue diacritics = new Queue();
+        char[] diacritics = new char[8];
+        int diacriticCount = 0;
 
         while (cdt.offset < data.length) 
         {
@@ -405,7 +434,16 @@ public class AnselToUnicode extends CharConverter {
                         && hasNext(cdt.offset, len)) 
                 {
                     char c = getChar(data[cdt.offset], cdt.g0, cdt.g1);
-                    if (c != 0) diacritics.put(new Character(c));
+                    if (c != 0)
+                    {
+                        if (diacriticCount == diacritics.length)
+                        {
+                            char[] newDiacritics = new char[diacriticCount * 2];
+                            System.arraycopy(diacritics, 0, newDiacritics, 0, diacriticCount);
+                            diacritics = newDiacritics;
+                        }
+                        diacritics[diacriticCount++] = c;
+                    }
                     cdt.offset++;
                     checkMode(data, cdt);
                 }
@@ -422,11 +460,8 @@ public class AnselToUnicode extends CharConverter {
                 checkMode(data, cdt);
                 if (c2 != 0) sb.append(c2);
 
-                while (!diacritics.isEmpty()) 
-                {
-                    char c1 = ((Character) diacritics.get()).charValue();
-                    sb.append(c1);
-                }
+                sb.append(diacritics, 0, diacriticCount);
+                diacriticCount = 0;
 
             } 
             else if (cdt.multibyte)
@@ -0,0 +1,79 @@
+// $Id$
+/**
+ * Copyright (C) 2002 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.converter.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the binary forms of the MARC4J supplied code tables, which the
+ * converters load instead of parsing the XML files. The binary files are
+ * shipped in <code>core/src/main/resources</code> and must be regenerated
+ * with this class (or the ant target <code>codetablebin</code>) whenever the
+ * XML files change.
+ * <br>
+ * For each of <code>codetables.xml</code> and
+ * <code>codetablesnocjk.xml</code> a {@link CompactCodeTable} is written to
+ * a file with the extension <code>.bin</code>, and for
+ * <code>codetables.xml</code> a {@link CompactReverseCodeTable} is written to
+ * <code>codetables.rev.bin</code>. The files are written to the directory
+ * given as the first argument, which should be the
+ * <code>org/marc4j/converter/impl</code> directory of the resources.
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class BinaryCodeTableGenerator {
+
+    public static void main(String args[]) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : ".");
+        dir.mkdirs();
+
+        OutputStream out = open(dir, "codetables.bin");
+        try {
+            new CompactCodeTable(CodeTable.class.getResourceAsStream("codetables.xml")).write(out);
+        } finally {
+            out.close();
+        }
+
+        out = open(dir, "codetablesnocjk.bin");
+        try {
+            new CompactCodeTable(CodeTable.class.getResourceAsStream("codetablesnocjk.xml")).write(out);
+        } finally {
+            out.close();
+        }
+
+        out = open(dir, "codetables.rev.bin");
+        try {
+            new CompactReverseCodeTable(CodeTable.class.getResourceAsStream("codetables.xml")).write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static OutputStream open(File dir, String name) throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(new File(dir, name)));
+    }
+
+}
@@ -48,9 +48,9 @@ import org.xml.sax.XMLReader;
  *  
  */
 public class CodeTable implements CodeTableInterface {
-    protected static HashMap charsets = null;
+    protected HashMap charsets = null;
 
-    protected static HashMap combining = null;
+    protected HashMap combining = null;
 
     public boolean isCombining(int i, int g0, int g1) {
         if (i <= 0x7E) {
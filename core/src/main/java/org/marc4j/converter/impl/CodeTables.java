@@ -0,0 +1,140 @@
+// $Id$
+/**
+ * Copyright (C) 2002 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.converter.impl;
+
+/**
+ * <p>
+ * <code>CodeTables</code> holds the MARC4J supplied code tables, shared by
+ * all converters in the process.
+ * </p>
+ *
+ * <p>
+ * Each table is loaded the first time it is asked for, once, and is never
+ * modified afterwards, so it can be used by any number of converters on any
+ * number of threads. The tables are read from the binary resources shipped
+ * with MARC4J (<code>codetables.bin</code>, <code>codetablesnocjk.bin</code>
+ * and <code>codetables.rev.bin</code>). Without them a generated table
+ * (<code>CodeTableGenerated</code> or <code>ReverseCodeTableGenerated</code>)
+ * is used when the build has created one, and the XML resources are parsed
+ * otherwise.
+ * </p>
+ *
+ * <p>
+ * A reverse code table also keeps track of the character sets in use while a
+ * field is converted, so {@link #getReverseCodeTable()} returns a new table
+ * for every caller that shares the mapping of the registered table.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class CodeTables {
+
+    private CodeTables() {
+    }
+
+    // each table is created when its holder class is initialized, which the
+    // JVM does once and publishes safely to all threads
+
+    private static class Generated {
+        static final CodeTableInterface TABLE = (CodeTableInterface) newGenerated(
+                "org.marc4j.converter.impl.CodeTableGenerated");
+    }
+
+    private static class Full {
+        static final CodeTableInterface TABLE = createTable("codetables");
+    }
+
+    private static class NoCJK {
+        static final CodeTableInterface TABLE = createTable("codetablesnocjk");
+
+        // the generated table always includes the multibyte characters
+        static final boolean GENERATED = !(TABLE instanceof CompactCodeTable);
+    }
+
+    private static class Reverse {
+        static final CompactReverseCodeTable TABLE = createReverse();
+
+        private static CompactReverseCodeTable createReverse() {
+            CompactReverseCodeTable table = CompactReverseCodeTable.readResource("codetables");
+            if (table != null)
+                return table;
+            ReverseCodeTable generated = (ReverseCodeTable) newGenerated(
+                    "org.marc4j.converter.impl.ReverseCodeTableGenerated");
+            if (generated != null)
+                return new CompactReverseCodeTable(generated);
+            return CompactReverseCodeTable.loadResource("codetables");
+        }
+    }
+
+    private static CodeTableInterface createTable(String name) {
+        CodeTableInterface table = CompactCodeTable.readResource(name);
+        if (table != null)
+            return table;
+        if (Generated.TABLE != null)
+            return Generated.TABLE;
+        return CompactCodeTable.loadResource(name);
+    }
+
+    /**
+     * Returns the shared MARC-8 to Unicode code table.
+     *
+     * @param multibyte
+     *            true if the table must include the multibyte (CJK)
+     *            characters
+     * @return CodeTableInterface - the code table
+     */
+    public static CodeTableInterface getCodeTable(boolean multibyte) {
+        return multibyte ? Full.TABLE : NoCJK.TABLE;
+    }
+
+    /**
+     * Returns true if the code table returned by
+     * <code>getCodeTable(false)</code> also includes the multibyte
+     * characters, which is the case when the binary resources are missing
+     * and the generated table is used.
+     *
+     * @return boolean - true if every code table includes the multibyte
+     *         characters
+     */
+    public static boolean isMultibyteAlwaysLoaded() {
+        return NoCJK.GENERATED;
+    }
+
+    /**
+     * Returns a new Unicode to MARC-8 reverse code table that shares the
+     * mapping of the registered table but has its own character set state.
+     *
+     * @return CompactReverseCodeTable - the reverse code table
+     */
+    public static CompactReverseCodeTable getReverseCodeTable() {
+        return new CompactReverseCodeTable(Reverse.TABLE);
+    }
+
+    private static Object newGenerated(String className) {
+        try {
+            return Class.forName(className).getConstructor().newInstance();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,443 @@
+// $Id$
+/**
+ * Copyright (C) 2002 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.converter.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.marc4j.MarcException;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * <p>
+ * <code>CompactCodeTable</code> is a <code>CodeTableInterface</code> that
+ * holds the MARC-8 to Unicode mapping in primitive arrays.
+ * </p>
+ *
+ * <p>
+ * Each single byte character set is a <code>char[256]</code> indexed by the
+ * MARC-8 byte, and the combining characters of a set are a 256 bit bitset.
+ * The three byte EACC character set is kept in an open addressing hash table
+ * of <code>int</code> keys and <code>char</code> values. Looking up a
+ * character does not create any objects. The results are the same as the
+ * results of {@link CodeTable} loaded from the same file.
+ * </p>
+ *
+ * <p>
+ * The arrays can be written to a compact binary file with
+ * {@link #write(OutputStream)} and read back with {@link #read(InputStream)}
+ * without parsing the XML file again. The build stores the binary form of
+ * the MARC4J supplied tables next to the XML files (see
+ * {@link BinaryCodeTableGenerator}).
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class CompactCodeTable implements CodeTableInterface {
+
+    static final int MAGIC = 0x4D384354; // "M8CT"
+
+    static final int VERSION = 1;
+
+    // the character sets and combining characters, indexed by ISO code
+    private char[][] singleByte = new char[128][];
+
+    private long[][] combining = new long[128][];
+
+    private MultiByteSet[] multiByte = new MultiByteSet[128];
+
+    /**
+     * Creates a code table from an XML file with the structure of LC's MARC-8
+     * to Unicode mapping (see:
+     * http://www.loc.gov/marc/specifications/codetables.xml).
+     *
+     * @param byteStream
+     *            the XML file
+     */
+    public CompactCodeTable(InputStream byteStream) {
+        CodeTableHandler handler = new CodeTableHandler();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(false);
+            SAXParser saxParser = factory.newSAXParser();
+            XMLReader rdr = saxParser.getXMLReader();
+            rdr.setContentHandler(handler);
+            rdr.parse(new InputSource(byteStream));
+        } catch (Exception e) {
+            throw new MarcException(e.getMessage(), e);
+        }
+        build(handler.getCharSets(), handler.getCombiningChars());
+    }
+
+    /**
+     * Creates a code table from the maps built by a {@link CodeTableHandler}.
+     *
+     * @param charsets
+     *            the character sets by ISO code
+     * @param combiningChars
+     *            the combining characters by ISO code
+     */
+    public CompactCodeTable(HashMap charsets, HashMap combiningChars) {
+        build(charsets, combiningChars);
+    }
+
+    private CompactCodeTable() {
+    }
+
+    /**
+     * Reads one of the MARC4J supplied code tables, for example
+     * <code>codetables</code>, from its binary resource.
+     *
+     * @param name
+     *            the name of the resource without extension
+     * @return CompactCodeTable - the code table, or <code>null</code> if
+     *         there is no binary resource
+     */
+    static CompactCodeTable readResource(String name) {
+        InputStream in = CompactCodeTable.class.getResourceAsStream(name + ".bin");
+        return in == null ? null : read(in);
+    }
+
+    /**
+     * Loads one of the MARC4J supplied code tables, for example
+     * <code>codetables</code>, from its binary resource, and from the XML
+     * resource if there is no binary resource.
+     *
+     * @param name
+     *            the name of the resource without extension
+     * @return CompactCodeTable - the code table
+     */
+    static CompactCodeTable loadResource(String name) {
+        CompactCodeTable table = readResource(name);
+        if (table != null)
+            return table;
+        InputStream in = CompactCodeTable.class.getResourceAsStream(name + ".xml");
+        if (in == null)
+            throw new MarcException("Code table resource not found: " + name);
+        return new CompactCodeTable(in);
+    }
+
+    /**
+     * Reads a code table written by {@link #write(OutputStream)}. The input
+     * is read completely and closed.
+     *
+     * @param in
+     *            the binary code table
+     * @return CompactCodeTable - the code table
+     */
+    public static CompactCodeTable read(InputStream in) {
+        ByteBuffer buffer = ByteBuffer.wrap(readFully(in));
+        CompactCodeTable table = new CompactCodeTable();
+        try {
+            checkHeader(buffer, MAGIC);
+            for (int n = buffer.getShort(); n > 0; n--) {
+                char[] chars = new char[256];
+                int mode = checkMode(buffer.get());
+                buffer.asCharBuffer().get(chars);
+                buffer.position(buffer.position() + 2 * chars.length);
+                table.singleByte[mode] = chars;
+            }
+            for (int n = buffer.getShort(); n > 0; n--) {
+                long[] bits = new long[4];
+                int mode = checkMode(buffer.get());
+                buffer.asLongBuffer().get(bits);
+                buffer.position(buffer.position() + 8 * bits.length);
+                table.combining[mode] = bits;
+            }
+            for (int n = buffer.getShort(); n > 0; n--) {
+                int mode = checkMode(buffer.get());
+                table.multiByte[mode] = new MultiByteSet(buffer);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new MarcException("Truncated binary code table", e);
+        }
+        return table;
+    }
+
+    /**
+     * Writes the code table in a binary form that can be read with
+     * {@link #read(InputStream)}.
+     *
+     * @param out
+     *            the output stream
+     * @throws IOException
+     *             if the output stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeShort(count(singleByte));
+        for (int mode = 0; mode < 128; mode++) {
+            if (singleByte[mode] == null)
+                continue;
+            data.writeByte(mode);
+            for (int i = 0; i < 256; i++)
+                data.writeChar(singleByte[mode][i]);
+        }
+        data.writeShort(count(combining));
+        for (int mode = 0; mode < 128; mode++) {
+            if (combining[mode] == null)
+                continue;
+            data.writeByte(mode);
+            for (int i = 0; i < 4; i++)
+                data.writeLong(combining[mode][i]);
+        }
+        data.writeShort(count(multiByte));
+        for (int mode = 0; mode < 128; mode++) {
+            if (multiByte[mode] == null)
+                continue;
+            data.writeByte(mode);
+            multiByte[mode].write(data);
+        }
+        data.flush();
+    }
+
+    private static int count(Object[] sets) {
+        int count = 0;
+        for (int i = 0; i < sets.length; i++)
+            if (sets[i] != null)
+                count++;
+        return count;
+    }
+
+    /**
+     * Checks the magic number and version at the start of a binary table.
+     */
+    static void checkHeader(ByteBuffer buffer, int magic) {
+        if (buffer.remaining() < 8 || buffer.getInt() != magic)
+            throw new MarcException("Not a binary code table");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new MarcException("Unsupported binary code table version: "
+                    + version);
+    }
+
+    /**
+     * Reads the remaining bytes of a stream with as few reads as possible
+     * and closes it.
+     */
+    static byte[] readFully(InputStream in) {
+        try {
+            try {
+                byte[] buf = new byte[Math.max(in.available() + 1, 8192)];
+                int length = 0;
+                int count;
+                while ((count = in.read(buf, length, buf.length - length)) >= 0) {
+                    length += count;
+                    if (length == buf.length) {
+                        byte[] newBuf = new byte[buf.length * 2];
+                        System.arraycopy(buf, 0, newBuf, 0, length);
+                        buf = newBuf;
+                    }
+                }
+                byte[] bytes = new byte[length];
+                System.arraycopy(buf, 0, bytes, 0, length);
+                return bytes;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new MarcException(e.getMessage(), e);
+        }
+    }
+
+    private void build(HashMap charsets, HashMap combiningChars) {
+        Iterator i = charsets.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry entry = (Map.Entry) i.next();
+            int mode = checkMode(((Integer) entry.getKey()).intValue());
+            Map charset = (Map) entry.getValue();
+            if (isSingleByte(charset))
+                singleByte[mode] = toArray(charset);
+            else
+                multiByte[mode] = new MultiByteSet(charset);
+        }
+        i = combiningChars.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry entry = (Map.Entry) i.next();
+            int mode = checkMode(((Integer) entry.getKey()).intValue());
+            long[] bits = new long[4];
+            Iterator j = ((Vector) entry.getValue()).iterator();
+            while (j.hasNext()) {
+                int code = ((Integer) j.next()).intValue();
+                if (code >= 0 && code <= 0xFF)
+                    bits[code >> 6] |= 1L << (code & 0x3F);
+            }
+            combining[mode] = bits;
+        }
+    }
+
+    private static int checkMode(int mode) {
+        if (mode < 0 || mode >= 128)
+            throw new MarcException("Invalid character set code: "
+                    + Integer.toHexString(mode));
+        return mode;
+    }
+
+    private static boolean isSingleByte(Map charset) {
+        Iterator i = charset.keySet().iterator();
+        while (i.hasNext()) {
+            int code = ((Integer) i.next()).intValue();
+            if (code < 0 || code > 0xFF)
+                return false;
+        }
+        return true;
+    }
+
+    private static char[] toArray(Map charset) {
+        char[] chars = new char[256];
+        Iterator i = charset.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry entry = (Map.Entry) i.next();
+            Character ch = (Character) entry.getValue();
+            if (ch != null)
+                chars[((Integer) entry.getKey()).intValue()] = ch.charValue();
+        }
+        return chars;
+    }
+
+    public boolean isCombining(int i, int g0, int g1) {
+        int mode = (i <= 0x7E) ? g0 : g1;
+        if (i < 0 || i > 0xFF || mode < 0 || mode >= 128)
+            return false;
+        long[] bits = combining[mode];
+        return bits != null && (bits[i >> 6] & (1L << (i & 0x3F))) != 0;
+    }
+
+    public char getChar(int c, int mode) {
+        if (c == 0x20)
+            return (char) c;
+        if (mode < 0 || mode >= 128)
+            return (char) c;
+        char[] chars = singleByte[mode];
+        if (chars != null) {
+            char ch = (c >= 0 && c <= 0xFF) ? chars[c] : 0;
+            if (ch == 0) {
+                int newc = (c < 0x80) ? c + 0x80 : c - 0x80;
+                ch = (newc >= 0 && newc <= 0xFF) ? chars[newc] : 0;
+            }
+            return ch;
+        }
+        MultiByteSet set = multiByte[mode];
+        if (set != null) {
+            char ch = set.get(c);
+            if (ch == 0)
+                ch = set.get((c < 0x80) ? c + 0x80 : c - 0x80);
+            return ch;
+        }
+        // unknown character set
+        return (char) c;
+    }
+
+    /**
+     * An open addressing hash table from three byte codes to characters.
+     */
+    static class MultiByteSet {
+
+        private int[] keys;
+
+        private char[] values;
+
+        private int mask;
+
+        MultiByteSet(ByteBuffer buffer) {
+            int capacity = buffer.getInt();
+            if (capacity < 16 || (capacity & (capacity - 1)) != 0)
+                throw new MarcException("Invalid binary code table");
+            keys = new int[capacity];
+            values = new char[capacity];
+            mask = capacity - 1;
+            buffer.asIntBuffer().get(keys);
+            buffer.position(buffer.position() + 4 * capacity);
+            buffer.asCharBuffer().get(values);
+            buffer.position(buffer.position() + 2 * capacity);
+        }
+
+        MultiByteSet(Map charset) {
+            int capacity = 16;
+            while (capacity < charset.size() * 2)
+                capacity <<= 1;
+            keys = new int[capacity];
+            values = new char[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, -1);
+            Iterator i = charset.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry entry = (Map.Entry) i.next();
+                Character ch = (Character) entry.getValue();
+                if (ch != null)
+                    put(((Integer) entry.getKey()).intValue(), ch.charValue());
+            }
+        }
+
+        void write(DataOutputStream data) throws IOException {
+            data.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++)
+                data.writeInt(keys[i]);
+            for (int i = 0; i < values.length; i++)
+                data.writeChar(values[i]);
+        }
+
+        private void put(int key, char value) {
+            int index = hash(key) & mask;
+            while (keys[index] != -1 && keys[index] != key)
+                index = (index + 1) & mask;
+            keys[index] = key;
+            values[index] = value;
+        }
+
+        char get(int key) {
+            if (key < 0)
+                return 0;
+            int index = hash(key) & mask;
+            int k;
+            while ((k = keys[index]) != -1) {
+                if (k == key)
+                    return values[index];
+                index = (index + 1) & mask;
+            }
+            return 0;
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+    }
+
+}
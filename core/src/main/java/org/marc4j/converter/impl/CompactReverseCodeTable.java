@@ -0,0 +1,411 @@
+// $Id$
+/**
+ * Copyright (C) 2002 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.converter.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.marc4j.MarcException;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * <p>
+ * <code>CompactReverseCodeTable</code> is a <code>ReverseCodeTable</code>
+ * that holds the Unicode to MARC-8 mapping in primitive arrays.
+ * </p>
+ *
+ * <p>
+ * A <code>char[65536]</code> index maps every BMP character to its entry,
+ * which lists the MARC-8 character sets that contain the character and the
+ * MARC-8 bytes in each of them. The combining characters are a 64K bitset.
+ * The lookup methods that take a <code>char</code> do not create any objects.
+ * The character sets of an entry are kept in the iteration order of the
+ * table the entry was built from, so {@link #getBestCharSet(char)} picks the
+ * same character set as the original table.
+ * </p>
+ *
+ * <p>
+ * Like {@link CompactCodeTable} the table can be written to a compact binary
+ * file with {@link #write(OutputStream)} and read back with
+ * {@link #read(InputStream)}.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class CompactReverseCodeTable extends ReverseCodeTable {
+
+    static final int MAGIC = 0x4D385254; // "M8RT"
+
+    // entry number + 1 for every BMP character, 0 if there is no entry
+    private char[] index;
+
+    private long[] combining;
+
+    // the character sets and MARC-8 bytes of each entry
+    private int[][] charsets;
+
+    private char[][][] codes;
+
+    private int count = 0;
+
+    /**
+     * Creates a reverse code table from an XML file with the structure of
+     * LC's MARC-8 to Unicode mapping (see:
+     * http://www.loc.gov/marc/specifications/codetables.xml).
+     *
+     * @param byteStream
+     *            the XML file
+     */
+    public CompactReverseCodeTable(InputStream byteStream) {
+        ReverseCodeTableHandler handler = new ReverseCodeTableHandler();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(false);
+            SAXParser saxParser = factory.newSAXParser();
+            XMLReader rdr = saxParser.getXMLReader();
+            rdr.setContentHandler(handler);
+            rdr.parse(new InputSource(byteStream));
+        } catch (Exception e) {
+            throw new MarcException(e.getMessage(), e);
+        }
+        Hashtable charSets = handler.getCharSets();
+        allocate(charSets.size());
+        Iterator i = charSets.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry entry = (Map.Entry) i.next();
+            add(((Character) entry.getKey()).charValue(),
+                    (Hashtable) entry.getValue());
+        }
+        Vector combiningChars = handler.getCombiningChars();
+        for (i = combiningChars.iterator(); i.hasNext();)
+            setCombining(((Character) i.next()).charValue());
+    }
+
+    /**
+     * Creates a copy of the BMP part of another reverse code table, for
+     * example the generated table. The copy starts with the default
+     * character sets. When the table is a <code>CompactReverseCodeTable</code>
+     * the copy shares its arrays, which are never modified after the table
+     * has been created.
+     *
+     * @param table
+     *            the table to copy
+     */
+    public CompactReverseCodeTable(ReverseCodeTable table) {
+        if (table instanceof CompactReverseCodeTable) {
+            CompactReverseCodeTable compact = (CompactReverseCodeTable) table;
+            index = compact.index;
+            combining = compact.combining;
+            charsets = compact.charsets;
+            codes = compact.codes;
+            count = compact.count;
+            return;
+        }
+        allocate(256);
+        for (int c = 0; c < 65536; c++) {
+            Character ch = Character.valueOf((char) c);
+            Hashtable chars = table.getCharTable(ch);
+            if (chars != null)
+                add((char) c, chars);
+            if (table.isCombining(ch))
+                setCombining((char) c);
+        }
+    }
+
+    CompactReverseCodeTable() {
+    }
+
+    /**
+     * Reads one of the MARC4J supplied code tables, for example
+     * <code>codetables</code>, from its binary resource.
+     *
+     * @param name
+     *            the name of the resource without extension
+     * @return CompactReverseCodeTable - the reverse code table, or
+     *         <code>null</code> if there is no binary resource
+     */
+    static CompactReverseCodeTable readResource(String name) {
+        InputStream in = CompactReverseCodeTable.class.getResourceAsStream(name + ".rev.bin");
+        return in == null ? null : read(in);
+    }
+
+    /**
+     * Loads one of the MARC4J supplied code tables, for example
+     * <code>codetables</code>, from its binary resource, and from the XML
+     * resource if there is no binary resource.
+     *
+     * @param name
+     *            the name of the resource without extension
+     * @return CompactReverseCodeTable - the reverse code table
+     */
+    static CompactReverseCodeTable loadResource(String name) {
+        CompactReverseCodeTable table = readResource(name);
+        if (table != null)
+            return table;
+        InputStream in = CompactReverseCodeTable.class.getResourceAsStream(name + ".xml");
+        if (in == null)
+            throw new MarcException("Code table resource not found: " + name);
+        return new CompactReverseCodeTable(in);
+    }
+
+    /**
+     * Reads a reverse code table written by {@link #write(OutputStream)}.
+     * The input is read completely and closed.
+     *
+     * @param in
+     *            the binary reverse code table
+     * @return CompactReverseCodeTable - the reverse code table
+     */
+    public static CompactReverseCodeTable read(InputStream in) {
+        ByteBuffer buffer = ByteBuffer.wrap(CompactCodeTable.readFully(in));
+        CompactReverseCodeTable table = new CompactReverseCodeTable();
+        try {
+            CompactCodeTable.checkHeader(buffer, MAGIC);
+            int size = buffer.getInt();
+            if (size < 0 || size > 65536)
+                throw new MarcException("Invalid binary code table");
+            table.allocate(size);
+            for (int n = 0; n < size; n++) {
+                char c = buffer.getChar();
+                int[] sets = new int[buffer.get() & 0xFF];
+                char[][] marc = new char[sets.length][];
+                for (int i = 0; i < sets.length; i++) {
+                    sets[i] = buffer.get() & 0xFF;
+                    marc[i] = new char[buffer.get() & 0xFF];
+                    for (int j = 0; j < marc[i].length; j++)
+                        marc[i][j] = (char) (buffer.get() & 0xFF);
+                }
+                table.charsets[n] = sets;
+                table.codes[n] = marc;
+                table.index[c] = (char) ++table.count;
+            }
+            buffer.asLongBuffer().get(table.combining);
+        } catch (BufferUnderflowException e) {
+            throw new MarcException("Truncated binary code table", e);
+        }
+        return table;
+    }
+
+    /**
+     * Writes the reverse code table in a binary form that can be read with
+     * {@link #read(InputStream)}.
+     *
+     * @param out
+     *            the output stream
+     * @throws IOException
+     *             if the output stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(CompactCodeTable.VERSION);
+        data.writeInt(count);
+        for (int c = 0; c < 65536; c++) {
+            int entry = index[c] - 1;
+            if (entry < 0)
+                continue;
+            data.writeChar(c);
+            data.writeByte(charsets[entry].length);
+            for (int i = 0; i < charsets[entry].length; i++) {
+                char[] marc = codes[entry][i];
+                data.writeByte(charsets[entry][i]);
+                data.writeByte(marc.length);
+                for (int j = 0; j < marc.length; j++)
+                    data.writeByte(marc[j]);
+            }
+        }
+        for (int i = 0; i < combining.length; i++)
+            data.writeLong(combining[i]);
+        data.flush();
+    }
+
+    private void allocate(int size) {
+        index = new char[65536];
+        combining = new long[1024];
+        charsets = new int[size][];
+        codes = new char[size][][];
+    }
+
+    private void add(char c, Hashtable chars) {
+        if (chars.isEmpty())
+            return;
+        if (count == charsets.length) {
+            int[][] newCharsets = new int[count * 2][];
+            char[][][] newCodes = new char[count * 2][][];
+            System.arraycopy(charsets, 0, newCharsets, 0, count);
+            System.arraycopy(codes, 0, newCodes, 0, count);
+            charsets = newCharsets;
+            codes = newCodes;
+        }
+        int[] sets = new int[chars.size()];
+        char[][] marc = new char[sets.length][];
+        Iterator i = chars.entrySet().iterator();
+        for (int n = 0; i.hasNext(); n++) {
+            Map.Entry entry = (Map.Entry) i.next();
+            sets[n] = ((Integer) entry.getKey()).intValue();
+            marc[n] = (char[]) entry.getValue();
+        }
+        charsets[count] = sets;
+        codes[count] = marc;
+        index[c] = (char) ++count;
+    }
+
+    private void setCombining(char c) {
+        combining[c >> 6] |= 1L << (c & 0x3F);
+    }
+
+    /**
+     * Returns true if the character is a combining character.
+     *
+     * @param c
+     *            the UCS/Unicode character to look up
+     * @return boolean - true if the character is a combining character
+     */
+    public boolean isCombining(char c) {
+        return (combining[c >> 6] & (1L << (c & 0x3F))) != 0;
+    }
+
+    /**
+     * Returns true if there is at least one MARC-8 representation of the
+     * character.
+     *
+     * @param c
+     *            the UCS/Unicode character to look up
+     * @return boolean - true if the character has a MARC-8 representation
+     */
+    public boolean charHasMatch(char c) {
+        return index[c] != 0;
+    }
+
+    /**
+     * Returns the MARC-8 representation of the character in the given
+     * character set.
+     *
+     * @param c
+     *            the UCS/Unicode character to look up
+     * @param charset
+     *            the ISO code of the character set
+     * @return char[] - the MARC-8 bytes, or <code>null</code> if the
+     *         character set does not contain the character
+     */
+    public char[] getCharEntry(char c, int charset) {
+        int entry = index[c] - 1;
+        if (entry < 0)
+            return null;
+        int[] sets = charsets[entry];
+        for (int i = 0; i < sets.length; i++)
+            if (sets[i] == charset)
+                return codes[entry][i];
+        return null;
+    }
+
+    /**
+     * Returns the MARC-8 representation of the character in the current G0
+     * character set.
+     *
+     * @param c
+     *            the UCS/Unicode character to look up
+     * @return char[] - the MARC-8 bytes, or <code>null</code> if the
+     *         character set does not contain the character
+     */
+    public char[] getCurrentG0CharEntry(char c) {
+        return getCharEntry(c, getPreviousG0());
+    }
+
+    /**
+     * Returns the MARC-8 representation of the character in the current G1
+     * character set.
+     *
+     * @param c
+     *            the UCS/Unicode character to look up
+     * @return char[] - the MARC-8 bytes, or <code>null</code> if the
+     *         character set does not contain the character
+     */
+    public char[] getCurrentG1CharEntry(char c) {
+        return getCharEntry(c, getPreviousG1());
+    }
+
+    /**
+     * Returns the best character set to encode a character that is in
+     * neither of the current character sets, using the same rules as
+     * {@link ReverseCodeTable#getBestCharSet(Character)}.
+     *
+     * @param c
+     *            the UCS/Unicode character to look up
+     * @return int - the ISO code of the character set
+     */
+    public int getBestCharSet(char c) {
+        int entry = index[c] - 1;
+        int[] sets = charsets[entry];
+        if (sets.length == 1)
+            return sets[0];
+        for (int i = 0; i < charsetsUsed.length(); i++) {
+            int toUse = charsetsUsed.charAt(i);
+            for (int j = 0; j < sets.length; j++)
+                if (sets[j] == toUse)
+                    return toUse;
+        }
+        int returnVal = sets[0];
+        for (int j = 0; j < sets.length; j++)
+            if (sets[j] == 'S')
+                returnVal = 'S';
+        charsetsUsed = charsetsUsed + (char) returnVal;
+        return returnVal;
+    }
+
+    public boolean isCombining(Character c) {
+        return isCombining(c.charValue());
+    }
+
+    public boolean charHasMatch(Character c) {
+        return charHasMatch(c.charValue());
+    }
+
+    public int getBestCharSet(Character c) {
+        return getBestCharSet(c.charValue());
+    }
+
+    public Hashtable getCharTable(Character c) {
+        int entry = index[c.charValue()] - 1;
+        if (entry < 0)
+            return null;
+        int[] sets = charsets[entry];
+        Hashtable chars = new Hashtable(sets.length);
+        for (int i = 0; i < sets.length; i++)
+            chars.put(Integer.valueOf(sets[i]), codes[entry][i]);
+        return chars;
+    }
+
+}
@@ -34,6 +34,20 @@ import org.marc4j.converter.CharConverter;
  */
 public class Iso5426ToUnicode extends CharConverter {
 
+  // the characters for every byte, and for every diacritic (0xC0 to 0xDF)
+  // followed by a base byte, filled in from getChar and getCombiningChar
+  private static final char[] SINGLE = new char[256];
+
+  private static final char[][] COMBINED = new char[32][256];
+
+  static {
+    for (int i = 0; i < 256; i++)
+      SINGLE[i] = getChar(i);
+    for (int c = 0xC0; c <= 0xDF; c++)
+      for (int i = 0; i < 256; i++)
+        COMBINED[c - 0xC0][i] = getCombiningChar(c * 256 + i);
+  }
+
   /**
    * <p>
    * Converts UNIMARC (ISO 5426 charset) data to UCS/Unicode.
@@ -43,40 +57,63 @@ public class Iso5426ToUnicode extends CharConverter {
    * @return {@link String}- the UCS/Unicode data
    */
   public String convert(char data[]) {
-    StringBuffer sb = new StringBuffer();
+    int len = data.length;
+    char[] out = new char[len];
+    int n = 0;
 
-    for (int i = 0; i < data.length; i++) {
+    for (int i = 0; i < len; i++) {
       char c = data[i];
-      int len = data.length;
-      if (isAscii(c))
-        sb.append(c);
-      else if (isCombining(c) && hasNext(i, len)) {
-        char d = getCombiningChar(c * 256 + data[i + 1]);
+      if (c > 0xFF) {
+        out[n++] = c;
+        continue;
+      }
+      if (isCombining(c) && i < len - 1) {
+        char next = data[i + 1];
+        char d = (next <= 0xFF) ? COMBINED[c - 0xC0][next]
+            : getCombiningChar(c * 256 + next);
         if (d != 0) {
-          sb.append(d);
+          out[n++] = d;
           i++;
-        } else {
-          sb.append(getChar(c));
+          continue;
         }
-      } else
-        sb.append(getChar(c));
+      }
+      out[n++] = SINGLE[c];
     }
-    return sb.toString();
+    return new String(out, 0, n);
   }
 
-  private boolean hasNext(int pos, int len) {
-    if (pos < (len - 1))
-      return true;
-    return false;
-  }
-
-  private boolean isAscii(int i) {
-    if (i >= 0x00 && i <= 0x7F)
-      return true;
-    return false;
+  /**
+   * <p>
+   * Converts UNIMARC (ISO 5426 charset) data to UCS/Unicode straight from a part
+   * of a byte array, without copying it to an array of char first.
+   * </p>
+   * 
+   * @param data - the buffer holding the UNIMARC data
+   * @param offset - the index of the first byte to convert
+   * @param length - the number of bytes to convert
+   * @return {@link String}- the UCS/Unicode data
+   */
+  public String convert(byte[] data, int offset, int length) {
+    char[] out = new char[length];
+    int n = 0;
+    int end = offset + length;
+
+    for (int i = offset; i < end; i++) {
+      int c = data[i] & 0xFF;
+      if (isCombining(c) && i < end - 1) {
+        char d = COMBINED[c - 0xC0][data[i + 1] & 0xFF];
+        if (d != 0) {
+          out[n++] = d;
+          i++;
+          continue;
+        }
+      }
+      out[n++] = SINGLE[c];
+    }
+    return new String(out, 0, n);
   }
 
-  private boolean isCombining(int i) {
+  private static boolean isCombining(int i) {
     //	if (i > 0xE0 && i < 0xFF)
     if (i >= 0xC0 && i <= 0xDF)
       return true;
@@ -84,7 +121,7 @@ public class Iso5426ToUnicode extends CharConverter {
   }
 
   // Source : http://www.itscj.ipsj.or.jp/ISO-IR/053.pdf
-  private char getChar(int i) {
+  private static char getChar(int i) {
     switch (i) {
     case 0xA1:
       return 0x00A1; // 2/1 inverted exclamation mark
@@ -199,7 +236,7 @@ public class Iso5426ToUnicode extends CharConverter {
     }
   }
 
-  private char getCombiningChar(int i) {
+  private static char getCombiningChar(int i) {
     switch (i) {
     // 4/0 low rising tone mark
     case 0xC041:
@@ -47,9 +47,9 @@ import org.xml.sax.helpers.DefaultHandler;
  * @see DefaultHandler
  */
 public class ReverseCodeTableHash extends ReverseCodeTable {
-  protected static Hashtable charset = null;
+  protected Hashtable charset = null;
 
-  protected static Vector combining = null;
+  protected Vector combining = null;
 
   public boolean isCombining(Character c) 
   {
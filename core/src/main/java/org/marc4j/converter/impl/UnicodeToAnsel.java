@@ -20,10 +20,16 @@
  */
 package org.marc4j.converter.impl;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.util.Hashtable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import org.marc4j.MarcException;
 import org.marc4j.converter.CharConverter;
 import org.marc4j.util.Normalizer;
 
@@ -36,6 +42,14 @@ import org.marc4j.util.Normalizer;
  * The MARC-8 to Unicode mapping used is the version with the March 2005
  * revisions.
  * </p>
+ * <p>
+ * The conversion looks characters up in a {@link CompactReverseCodeTable}.
+ * A subclass that sets {@link #rct} to another type of table gets a compact
+ * copy of its mapping, made once per table, unless the class of the table
+ * overrides one of the lookup methods of {@link ReverseCodeTable}, such as
+ * <code>charHasMatch</code> or <code>getBestCharSet</code>. Such a table is
+ * used through its own methods, which is much slower.
+ * </p>
  * 
  * @author Bas Peters
  * @author Corey Keith
@@ -55,14 +69,37 @@ public class UnicodeToAnsel extends CharConverter {
 
     static final int ASCII = 0x42;
 
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // the methods of ReverseCodeTable that a compact copy does not call
+    private static final List LOOKUP_METHODS = Arrays.asList(new String[] {
+            "init", "getPreviousG0", "getPreviousG1", "setPreviousG0", "setPreviousG1",
+            "codeTableHash", "charHasMatch", "inPreviousG0CharEntry", "inPreviousG1CharEntry",
+            "getCurrentG0CharEntry", "getCurrentG1CharEntry", "getCharEntry", "getBestCharSet" });
+
+    // the compact copies of the tables of other types, shared by all instances
+    private static final Map compactCopies = new WeakHashMap();
+
+    // the table that is used for the conversion of rct
+    private CompactReverseCodeTable compactTable = null;
+
+    private ReverseCodeTable compactTableFor = null;
+
+    // the output buffer, reused by every conversion
+    private char[] buf = new char[256];
+
+    private int length = 0;
+
+    // the MARC-8 encoding of the current character
+    private char[] marc = new char[8];
+
     /**
-     * Creates a new instance and loads the MARC4J supplied Ansel/Unicode
-     * conversion tables based on the official LC tables. Loads in the generated class
-     * ReverseCodeTableGenerated which contains switch statements to lookup 
-     * the MARC-8 encodings for given Unicode characters.
+     * Creates a new instance that uses the MARC4J supplied Ansel/Unicode
+     * conversion tables based on the official LC tables. The tables are
+     * loaded once and shared with all other instances (see {@link CodeTables}).
      */
     public UnicodeToAnsel() {
-        rct = loadGeneratedTable();
+        rct = CodeTables.getReverseCodeTable();
         //this(UnicodeToAnsel.class
         //        .getResourceAsStream("resources/codetables.xml"));
     }
@@ -77,7 +114,16 @@ public class UnicodeToAnsel extends CharConverter {
      *  
      */
     public UnicodeToAnsel(String pathname) {
-        rct = new ReverseCodeTableHash(pathname);
+        try {
+            InputStream in = new FileInputStream(pathname);
+            try {
+                rct = new CompactReverseCodeTable(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new MarcException(e.getMessage(), e);
+        }
     }
     
     /**
@@ -90,24 +136,53 @@ public class UnicodeToAnsel extends CharConverter {
      *  
      */
     public UnicodeToAnsel(InputStream in) {
-        rct = new ReverseCodeTableHash(in);
+        rct = new CompactReverseCodeTable(in);
     }
     
-    private ReverseCodeTable loadGeneratedTable() 
+    /**
+     * Returns the reverse code table as a <code>CompactReverseCodeTable</code>.
+     * A table of another type is copied once, unless it overrides one of the
+     * lookup methods, in which case its own methods are called.
+     */
+    private CompactReverseCodeTable getCompactTable()
     {
-        try
+        if (rct instanceof CompactReverseCodeTable)
+            return (CompactReverseCodeTable) rct;
+        if (compactTableFor != rct)
         {
-            Class generated = Class.forName("org.marc4j.converter.impl.ReverseCodeTableGenerated");
-            Constructor cons = generated.getConstructor();
-            Object rct = cons.newInstance();
-            return((ReverseCodeTable)rct);
+            if (overridesLookup(rct.getClass()))
+                compactTable = new DelegatingTable(rct);
+            else
+                compactTable = new CompactReverseCodeTable(getCompactCopy(rct));
+            compactTableFor = rct;
+        }
+        return compactTable;
+    }
+
+    private static CompactReverseCodeTable getCompactCopy(ReverseCodeTable table)
+    {
+        synchronized (compactCopies)
+        {
+            CompactReverseCodeTable copy = (CompactReverseCodeTable) compactCopies.get(table);
+            if (copy == null)
+            {
+                copy = new CompactReverseCodeTable(table);
+                compactCopies.put(table, copy);
+            }
+            return copy;
         }
-        catch (Exception e)
+    }
+
+    private static boolean overridesLookup(Class c)
+    {
+        for (; c != ReverseCodeTable.class; c = c.getSuperclass())
         {
-            ReverseCodeTable rct;
-            rct = new ReverseCodeTableHash(AnselToUnicode.class.getResourceAsStream("codetables.xml"));                
-            return(rct);
+            Method[] methods = c.getDeclaredMethods();
+            for (int i = 0; i < methods.length; i++)
+                if (LOOKUP_METHODS.contains(methods[i].getName()))
+                    return true;
         }
+        return false;
     }
 
     /**
@@ -124,19 +199,22 @@ public class UnicodeToAnsel extends CharConverter {
      */
     public String convert(char data[]) 
     {
-        StringBuffer sb = new StringBuffer();
+        CompactReverseCodeTable table = getCompactTable();
         
-        rct.init();
+        table.init();
+        length = 0;
+        ensureCapacity(data.length + 16);
         
-        convertPortion(data, sb);
+        convertPortion(table, data);
 
-        if (rct.getPreviousG0() != ASCII) {
-            sb.append(ESC);
-            sb.append(G0);
-            sb.append((char) ASCII);
+        if (table.getPreviousG0() != ASCII) {
+            ensureCapacity(3);
+            buf[length++] = ESC;
+            buf[length++] = G0;
+            buf[length++] = (char) ASCII;
         }
 
-        return sb.toString();
+        return new String(buf, 0, length);
     }
     
     /**
@@ -148,106 +226,205 @@ public class UnicodeToAnsel extends CharConverter {
      * its decomposed form, and try to translate that equivalent string into MARC8. 
      * </p>
      * 
+     * <p>
+     * The MARC-8 data is written to the reusable buffer of this converter, the encoding of each
+     * character is first assembled in a small scratch array so that it can be inserted in front
+     * of the previous character when it is a combining character.
+     * </p>
+     * 
+     * @param table - the reverse code table
      * @param data - the UCS/Unicode data in an array of char
-     * @return String - the MARC-8 data
      */
-    private void convertPortion(char data[], StringBuffer sb)
+    private void convertPortion(CompactReverseCodeTable table, char data[])
     {
         for (int i = 0; i < data.length; i++) 
         {
-            Character c = new Character(data[i]);
-            Integer table;
-            StringBuffer marc = new StringBuffer();
-            int charValue = (int)c.charValue();
-            if (charValue == 0x20 && rct.getPreviousG0() != (int)'1')
+            char c = data[i];
+            int marcLength = 0;
+            if (c == 0x20 && table.getPreviousG0() != (int)'1')
             {
-                if (rct.getPreviousG0() == (int)'1')
-                {
-                    sb.append(ESC);
-                    sb.append(G0);
-                    sb.append((char) ASCII);
-                    rct.setPreviousG0(ASCII);
-                }
-                marc.append(" ");
+                marc[marcLength++] = ' ';
             }
-            else if (!rct.charHasMatch(c))
+            else if (!table.charHasMatch(c))
             {
-                String tmpnorm = c.toString();
+                String tmpnorm = String.valueOf(c);
                 String tmpNormed = Normalizer.normalize(tmpnorm, Normalizer.NFD);
                 if (!tmpnorm.equals(tmpNormed))
                 {
-                    convertPortion(tmpNormed.toCharArray(), sb);
+                    convertPortion(table, tmpNormed.toCharArray());
                     continue;
                 }
-                if (rct.getPreviousG0() != ASCII)
+                ensureCapacity(11);
+                if (table.getPreviousG0() != ASCII)
                 {
-                    sb.append(ESC);
-                    sb.append(G0);
-                    sb.append((char) ASCII);
-                    rct.setPreviousG0(ASCII);
+                    buf[length++] = ESC;
+                    buf[length++] = G0;
+                    buf[length++] = (char) ASCII;
+                    table.setPreviousG0(ASCII);
                 }
-                if (charValue < 0x1000) 
-                    sb.append("&#x"+Integer.toHexString(charValue + 0x10000).toUpperCase().substring(1)+";");
-                else
-                    sb.append("&#x"+Integer.toHexString(charValue).toUpperCase()+";");
+                buf[length++] = '&';
+                buf[length++] = '#';
+                buf[length++] = 'x';
+                buf[length++] = HEX_DIGITS[(c >> 12) & 0xF];
+                buf[length++] = HEX_DIGITS[(c >> 8) & 0xF];
+                buf[length++] = HEX_DIGITS[(c >> 4) & 0xF];
+                buf[length++] = HEX_DIGITS[c & 0xF];
+                buf[length++] = ';';
                 continue;
-            }            
-            else if (rct.inPreviousG0CharEntry(c))
-            {
-                marc.append(rct.getCurrentG0CharEntry(c));
-            } 
-            else if (rct.inPreviousG1CharEntry(c))
-            {
-                marc.append(rct.getCurrentG1CharEntry(c));
-            } 
-            else // need to change character set
+            }
+            else
             {
-                // if several MARC-8 character sets contain the given Unicode character, select the
-                // best char set to use for encoding the character.  Preference is given to character
-                // sets that have been used previously in the field being encoded.  Since the default
-                // character sets for Basic and extended latin are pre-loaded, usually if a character
-                // can be encoded by one of those character sets, that is what will be chosen.
-                int charset = rct.getBestCharSet(c);
-                char[] marc8 = rct.getCharEntry(c, charset);
-
-                if (marc8.length == 3) 
-                {
-                    marc.append(ESC);
-                    marc.append(G0multibyte);
-                    rct.setPreviousG0(charset);
-                } 
-                else if (marc8[0] < 0x80) 
+                char[] marc8 = table.getCurrentG0CharEntry(c);
+                if (marc8 == null)
+                    marc8 = table.getCurrentG1CharEntry(c);
+                if (marc8 == null) // need to change character set
                 {
-                    marc.append(ESC);
-                    if (charset == 0x62 || charset == 0x70) 
+                    // if several MARC-8 character sets contain the given Unicode character, select the
+                    // best char set to use for encoding the character.  Preference is given to character
+                    // sets that have been used previously in the field being encoded.  Since the default
+                    // character sets for Basic and extended latin are pre-loaded, usually if a character
+                    // can be encoded by one of those character sets, that is what will be chosen.
+                    int charset = table.getBestCharSet(c);
+                    marc8 = table.getCharEntry(c, charset);
+
+                    if (marc8.length == 3) 
+                    {
+                        marc[marcLength++] = ESC;
+                        marc[marcLength++] = G0multibyte;
+                        table.setPreviousG0(charset);
+                    } 
+                    else if (marc8[0] < 0x80) 
                     {
-//                        technique1 = true;
+                        marc[marcLength++] = ESC;
+                        if (charset == 0x62 || charset == 0x70) 
+                        {
+//                            technique1 = true;
+                        } 
+                        else 
+                        {
+                            marc[marcLength++] = G0;
+                        }
+                        table.setPreviousG0(charset);
                     } 
                     else 
                     {
-                        marc.append(G0);
+                        marc[marcLength++] = ESC;
+                        marc[marcLength++] = G1;
+                        table.setPreviousG1(charset);
                     }
-                    rct.setPreviousG0(charset);
-                } 
-                else 
+                    marc[marcLength++] = (char) charset;
+                }
+                if (marcLength + marc8.length > marc.length)
                 {
-                    marc.append(ESC);
-                    marc.append(G1);
-                    rct.setPreviousG1(charset);
+                    char[] newMarc = new char[marcLength + marc8.length];
+                    System.arraycopy(marc, 0, newMarc, 0, marcLength);
+                    marc = newMarc;
                 }
-                marc.append((char) charset);
-                marc.append(marc8);
+                System.arraycopy(marc8, 0, marc, marcLength, marc8.length);
+                marcLength += marc8.length;
             }
 
-            if (rct.isCombining(c) && sb.length() > 0)
+            ensureCapacity(marcLength);
+            if (table.isCombining(c) && length > 0)
             {
-                sb.insert(sb.length() - 1, marc);
+                // place the combining character in front of the previous character
+                buf[length - 1 + marcLength] = buf[length - 1];
+                System.arraycopy(marc, 0, buf, length - 1, marcLength);
             }
             else
             {
-                sb.append(marc);
+                System.arraycopy(marc, 0, buf, length, marcLength);
             }
+            length += marcLength;
         }    
     }
 
+    /**
+     * Makes room for the given number of characters after the end of the
+     * output buffer.
+     */
+    private void ensureCapacity(int extra)
+    {
+        if (length + extra > buf.length)
+        {
+            char[] newBuf = new char[Math.max(buf.length * 2, length + extra)];
+            System.arraycopy(buf, 0, newBuf, 0, length);
+            buf = newBuf;
+        }
+    }
+
+    /**
+     * Looks characters up through the methods of a reverse code table that
+     * overrides the lookup methods, the way this class did before it used
+     * compact tables.
+     */
+    private static class DelegatingTable extends CompactReverseCodeTable
+    {
+        private ReverseCodeTable table;
+
+        DelegatingTable(ReverseCodeTable table)
+        {
+            this.table = table;
+        }
+
+        public void init()
+        {
+            // also called by the constructor of ReverseCodeTable
+            if (table != null)
+                table.init();
+        }
+
+        public byte getPreviousG0()
+        {
+            return table.getPreviousG0();
+        }
+
+        public byte getPreviousG1()
+        {
+            return table.getPreviousG1();
+        }
+
+        public void setPreviousG0(int charset)
+        {
+            table.setPreviousG0(charset);
+        }
+
+        public void setPreviousG1(int charset)
+        {
+            table.setPreviousG1(charset);
+        }
+
+        public boolean isCombining(char c)
+        {
+            return table.isCombining(Character.valueOf(c));
+        }
+
+        public boolean charHasMatch(char c)
+        {
+            return table.charHasMatch(Character.valueOf(c));
+        }
+
+        public char[] getCurrentG0CharEntry(char c)
+        {
+            Character ch = Character.valueOf(c);
+            return table.inPreviousG0CharEntry(ch) ? table.getCurrentG0CharEntry(ch) : null;
+        }
+
+        public char[] getCurrentG1CharEntry(char c)
+        {
+            Character ch = Character.valueOf(c);
+            return table.inPreviousG1CharEntry(ch) ? table.getCurrentG1CharEntry(ch) : null;
+        }
+
+        public char[] getCharEntry(char c, int charset)
+        {
+            return table.getCharEntry(Character.valueOf(c), charset);
+        }
+
+        public int getBestCharSet(char c)
+        {
+            return table.getBestCharSet(Character.valueOf(c));
+        }
+    }
+
 }
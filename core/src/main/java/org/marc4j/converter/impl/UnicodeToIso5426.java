@@ -20,6 +20,8 @@
  */
 package org.marc4j.converter.impl;
 
+import java.util.Arrays;
+
 import org.marc4j.converter.CharConverter;
 
 /**
@@ -33,6 +35,26 @@ import org.marc4j.converter.CharConverter;
  */
 public class UnicodeToIso5426 extends CharConverter {
 
+  // the result of convert(int) for every character, in pages of 256
+  // characters, a page without any match is null
+  private static final char[][] PAGES = new char[256][];
+
+  static {
+    for (int page = 0; page < 256; page++) {
+      char[] chars = null;
+      for (int i = 0; i < 256; i++) {
+        int d = convert(page * 256 + i);
+        if (d != 0x3F && chars == null) {
+          chars = new char[256];
+          Arrays.fill(chars, (char) 0x3F);
+        }
+        if (chars != null)
+          chars[i] = (char) d;
+      }
+      PAGES[page] = chars;
+    }
+  }
+
   /**
    * <p>
    * Converts UCS/Unicode data to UNIMARC (ISO 5426 charset).
@@ -46,25 +68,53 @@ public class UnicodeToIso5426 extends CharConverter {
    * @return {@link String}- the UNIMARC (ISO 5426 charset) data
    */
   public String convert(char data[]) {
-    StringBuffer sb = new StringBuffer();
-    for (int i = 0; i < data.length; i++) {
-      char c = data[i];
-      if (c < 128)
-        sb.append(c);
-      else {
-        int d = convert(c);
-        if (d < 256) {
-          sb.append((char) d);
-        } else {
-          sb.append((char) (d / 256));
-          sb.append((char) (d % 256));
-        }
-      }
+    char[] out = new char[data.length * 2];
+    int n = 0;
+    for (int i = 0; i < data.length; i++)
+      n = encode(data[i], out, n);
+    return new String(out, 0, n);
+  }
+
+  /**
+   * <p>
+   * Converts data given as bytes (ISO 8859-1 characters) to UNIMARC (ISO 5426 charset),
+   * without copying it to an array of char first.
+   * </p>
+   * 
+   * @param data - the buffer holding the data
+   * @param offset - the index of the first byte to convert
+   * @param length - the number of bytes to convert
+   * @return {@link String}- the UNIMARC (ISO 5426 charset) data
+   */
+  public String convert(byte[] data, int offset, int length) {
+    char[] out = new char[length * 2];
+    int n = 0;
+    for (int i = offset; i < offset + length; i++)
+      n = encode(data[i] & 0xFF, out, n);
+    return new String(out, 0, n);
+  }
+
+  /**
+   * Writes the encoding of a character to the output and returns the new
+   * output length.
+   */
+  private static int encode(int c, char[] out, int n) {
+    if (c < 128) {
+      out[n++] = (char) c;
+      return n;
+    }
+    char[] page = PAGES[c >> 8];
+    int d = (page != null) ? page[c & 0xFF] : 0x3F;
+    if (d < 256) {
+      out[n++] = (char) d;
+    } else {
+      out[n++] = (char) (d / 256);
+      out[n++] = (char) (d % 256);
     }
-    return sb.toString();
+    return n;
   }
 
-  private int convert(int i) {
+  private static int convert(int i) {
     switch (i) {
     case 0x0024:
       return 0xA4; // 2/4 dollar sign
@@ -147,6 +147,21 @@ public abstract class MarcFactory {
    */
   public abstract ControlField newControlField(String tag, String data);
 
+  /**
+   * Creates a new control field with the given tag number and data and
+   * returns the instance. The bundled factories use a shared tag string for
+   * the number, so no tag string is created or parsed.
+   * 
+   * @param tag
+   *          the tag number, from 0 to 999
+   * @param data
+   *          the data element
+   * @return ControlField
+   */
+  public ControlField newControlField(int tag, String data) {
+    return newControlField(formatTag(tag), data);
+  }
+
   /**
    * Returns a new data field instance.
    * 
@@ -162,6 +177,36 @@ public abstract class MarcFactory {
    */
   public abstract DataField newDataField(String tag, char ind1, char ind2);
 
+  /**
+   * Creates a new data field with the given tag number and indicators and
+   * returns the instance. The bundled factories use a shared tag string for
+   * the number, so no tag string is created or parsed.
+   * 
+   * @param tag
+   *          the tag number, from 0 to 999
+   * @param ind1
+   *          the first indicator
+   * @param ind2
+   *          the second indicator
+   * @return DataField
+   */
+  public DataField newDataField(int tag, char ind1, char ind2) {
+    return newDataField(formatTag(tag), ind1, ind2);
+  }
+
+  /**
+   * Returns the tag of three digits for a tag number.
+   * 
+   * @throws IllegalArgumentException
+   *           if the number is not between 0 and 999
+   */
+  private static String formatTag(int tag) {
+    if (tag < 0 || tag > 999)
+      throw new IllegalArgumentException("Invalid tag number: " + tag);
+    return new String(new char[] { (char) ('0' + tag / 100),
+        (char) ('0' + tag / 10 % 10), (char) ('0' + tag % 10) });
+  }
+
   /**
    * Returns a new leader instance.
    * 
@@ -22,6 +22,7 @@ package org.marc4j.marc;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.marc4j.marc.Leader;
 
@@ -219,4 +220,43 @@ public interface Record extends Serializable {
      */
     public List find(String[] tag, String pattern);
 
+    /**
+     * Returns a List of VariableField objects that have a data element that
+     * matches the given compiled regular expression.
+     * 
+     * <p>
+     * Compiling a regular expression once and passing the compiled pattern
+     * avoids looking it up for every record.
+     * </p>
+     * 
+     * @param pattern
+     *            the compiled regular expression
+     * @return List - the result list
+     */
+    public List find(Pattern pattern);
+
+    /**
+     * Returns a List of VariableField objects with the given tag that have a
+     * data element that matches the given compiled regular expression.
+     * 
+     * @param tag
+     *            the tag value
+     * @param pattern
+     *            the compiled regular expression
+     * @return List - the result list
+     */
+    public List find(String tag, Pattern pattern);
+
+    /**
+     * Returns a List of VariableField objects with the given tags that have a
+     * data element that matches the given compiled regular expression.
+     * 
+     * @param tag
+     *            the tag values
+     * @param pattern
+     *            the compiled regular expression
+     * @return List - the result list
+     */
+    public List find(String[] tag, Pattern pattern);
+
 }
\ No newline at end of file
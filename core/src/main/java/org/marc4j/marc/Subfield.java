@@ -21,6 +21,7 @@
 package org.marc4j.marc;
 
 import java.io.Serializable;
+import java.util.regex.Pattern;
 
 /**
  * Represents a subfield in a MARC record.
@@ -91,4 +92,14 @@ public interface Subfield extends Serializable {
      */
     public boolean find(String pattern);
 
+    /**
+     * Returns true if the given compiled regular expression matches a
+     * subsequence of the data element.
+     * 
+     * @param pattern
+     *            the compiled regular expression
+     * @return true if the pattern matches, false othewise
+     */
+    public boolean find(Pattern pattern);
+
 }
@@ -21,6 +21,7 @@
 package org.marc4j.marc;
 
 import java.io.Serializable;
+import java.util.regex.Pattern;
 
 import org.marc4j.marc.impl.VariableFieldImpl;
 
@@ -81,4 +82,14 @@ public interface VariableField extends Serializable, Comparable {
      */
     public abstract boolean find(String pattern);
 
+    /**
+     * Returns true if the given compiled regular expression matches a
+     * subsequence of a data element within the variable field.
+     * 
+     * @param pattern
+     *            the compiled regular expression
+     * @return true if the pattern matches, false othewise
+     */
+    public abstract boolean find(Pattern pattern);
+
 }
@@ -20,7 +20,6 @@
  */
 package org.marc4j.marc.impl;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.marc4j.marc.ControlField;
@@ -85,9 +84,11 @@ public class ControlFieldImpl extends VariableFieldImpl implements ControlField
     }
 
     public boolean find(String pattern) {
-        Pattern p = Pattern.compile(pattern);
-        Matcher m = p.matcher(getData());
-        return m.find();
+        return find(PatternCache.compile(pattern));
+    }
+
+    public boolean find(Pattern pattern) {
+        return pattern.matcher(getData()).find();
     }
 
     public void setId(Long id) {
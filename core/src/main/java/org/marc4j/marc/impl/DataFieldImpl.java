@@ -23,6 +23,7 @@ package org.marc4j.marc.impl;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.marc4j.marc.DataField;
 import org.marc4j.marc.IllegalAddException;
@@ -174,6 +175,10 @@ public class DataFieldImpl extends VariableFieldImpl implements DataField {
     }
 
     public boolean find(String pattern) {
+        return find(PatternCache.compile(pattern));
+    }
+
+    public boolean find(Pattern pattern) {
         Iterator i = subfields.iterator();
         while (i.hasNext()) {
             Subfield sf = (Subfield) i.next();
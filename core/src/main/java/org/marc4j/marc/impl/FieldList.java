@@ -0,0 +1,50 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.marc.impl;
+
+import java.util.ArrayList;
+
+/**
+ * A field list that counts every change, including replacing an element,
+ * so that an index, or a sorted record, can tell whether it is still up to
+ * date.
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+class FieldList extends ArrayList {
+
+    private static final long serialVersionUID = 2381756612391450117L;
+
+    // counted apart from modCount, which the iterators of ArrayList check
+    // and do not update when an element is replaced through them
+    private int replacements = 0;
+
+    int getModCount() {
+        return modCount + replacements;
+    }
+
+    public Object set(int index, Object element) {
+        replacements++;
+        return super.set(index, element);
+    }
+
+}
@@ -0,0 +1,232 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.marc.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.marc4j.marc.VariableField;
+
+/**
+ * Represents a MARC record that keeps an index from tags to fields.
+ *
+ * <p>
+ * Looking up fields by tag with {@link #getVariableField(String)} or
+ * {@link #getVariableFields(String)} takes time proportional to the logarithm
+ * of the number of fields plus the number of fields found, instead of a scan
+ * over all fields. Numeric tags are encoded as an <code>int</code> from 0 to
+ * 999, and the index of the control fields and the index of the data fields
+ * are each a sorted array with one entry per field, holding the tag number
+ * and the position of the field. Fields with other tags are not indexed and
+ * are looked up with a scan, as in <code>RecordImpl</code>.
+ * </p>
+ *
+ * <p>
+ * Appending a field updates the index in place. Any other change to the field
+ * lists, made through this record or through the lists returned by
+ * {@link #getControlFields()} and {@link #getDataFields()}, invalidates the
+ * index, which is then rebuilt on the next lookup. Changing the tag of a
+ * field is not noticed: to give a field of the record another tag, remove
+ * the field, change its tag and add it again.
+ * </p>
+ *
+ * <p>
+ * Records of this type are created by {@link IndexedMarcFactoryImpl}, which
+ * can be selected by setting the system property
+ * <code>org.marc4j.marc.MarcFactory</code> to
+ * <code>org.marc4j.marc.impl.IndexedMarcFactoryImpl</code>.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class IndexedRecordImpl extends RecordImpl {
+
+    private static final long serialVersionUID = 6590213481173270516L;
+
+    private transient TagIndex controlIndex;
+
+    private transient TagIndex dataIndex;
+
+    /**
+     * Creates a new <code>Record</code>.
+     */
+    public IndexedRecordImpl() {
+        super();
+        controlFields = new FieldList();
+        dataFields = new FieldList();
+    }
+
+    public void addVariableField(VariableField field) {
+        super.addVariableField(field);
+        String tag = field.getTag();
+        // the control number field is inserted at the front, every other
+        // field is appended to its list
+        if (!Verifier.isControlNumberField(tag))
+            index(tag).appended();
+    }
+
+    public VariableField getVariableField(String tag) {
+        int number = TagTable.getTagNumber(tag);
+        if (number < 0)
+            return super.getVariableField(tag);
+        return index(tag).first(number);
+    }
+
+    public List getVariableFields(String tag) {
+        int number = TagTable.getTagNumber(tag);
+        if (number < 0)
+            return super.getVariableFields(tag);
+        List fields = new ArrayList();
+        index(tag).collect(number, fields);
+        return fields;
+    }
+
+    public List getVariableFields(String[] tags) {
+        List fields = new ArrayList();
+        for (int i = 0; i < tags.length; i++) {
+            int number = TagTable.getTagNumber(tags[i]);
+            if (number < 0)
+                fields.addAll(super.getVariableFields(tags[i]));
+            else
+                index(tags[i]).collect(number, fields);
+        }
+        return fields;
+    }
+
+    private TagIndex index(String tag) {
+        if (Verifier.isControlField(tag)) {
+            if (controlIndex == null)
+                controlIndex = new TagIndex((FieldList) controlFields);
+            return controlIndex;
+        }
+        if (dataIndex == null)
+            dataIndex = new TagIndex((FieldList) dataFields);
+        return dataIndex;
+    }
+
+    /**
+     * The sorted tag numbers and positions of the fields in a field list.
+     * Each key holds the tag number in the upper and the position in the
+     * lower 32 bits, so the fields with the same tag are in list order.
+     */
+    static class TagIndex {
+
+        private FieldList fields;
+
+        private long[] keys = new long[16];
+
+        private int size = 0;
+
+        // the modification count of the list when the index was last
+        // brought up to date, -1 if it never was
+        private int modCount = -1;
+
+        TagIndex(FieldList fields) {
+            this.fields = fields;
+        }
+
+        /**
+         * Adds the last field of the list to an up to date index, after it
+         * has been appended.
+         */
+        void appended() {
+            if (fields.getModCount() != modCount + 1)
+                return;
+            modCount++;
+            int position = fields.size() - 1;
+            VariableField field = (VariableField) fields.get(position);
+            int number = TagTable.getTagNumber(field.getTag());
+            if (number < 0)
+                return;
+            // the new key is the largest key for its tag
+            int i = search(number + 1);
+            if (size == keys.length) {
+                long[] newKeys = new long[size * 2];
+                System.arraycopy(keys, 0, newKeys, 0, size);
+                keys = newKeys;
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            keys[i] = ((long) number << 32) | position;
+            size++;
+        }
+
+        VariableField first(int number) {
+            update();
+            int i = search(number);
+            if (i < size && (int) (keys[i] >>> 32) == number)
+                return (VariableField) fields.get((int) keys[i]);
+            return null;
+        }
+
+        void collect(int number, List result) {
+            update();
+            for (int i = search(number); i < size && (int) (keys[i] >>> 32) == number; i++)
+                result.add(fields.get((int) keys[i]));
+        }
+
+        /**
+         * Returns the position of the first key with a tag number equal to
+         * or greater than the given number.
+         */
+        private int search(int number) {
+            long key = (long) number << 32;
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        private void update() {
+            if (fields.getModCount() != modCount)
+                rebuild();
+        }
+
+        private void rebuild() {
+            int count = fields.size();
+            if (keys.length < count)
+                keys = new long[count];
+            size = 0;
+            boolean sorted = true;
+            for (int i = 0; i < count; i++) {
+                int number = TagTable.getTagNumber(((VariableField) fields.get(i)).getTag());
+                if (number < 0)
+                    continue;
+                long key = ((long) number << 32) | i;
+                if (size > 0 && key < keys[size - 1])
+                    sorted = false;
+                keys[size++] = key;
+            }
+            if (!sorted)
+                Arrays.sort(keys, 0, size);
+            modCount = fields.getModCount();
+        }
+
+    }
+
+}
@@ -0,0 +1,241 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.marc.impl;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.VariableField;
+
+/**
+ * Represents a MARC record read in ISO 2709 format whose fields are decoded
+ * on demand.
+ *
+ * <p>
+ * The record keeps the raw record bytes and the directory (the tag, offset
+ * and length of every field). A field is only decoded, including the
+ * conversion of its character data, the first time it is requested through
+ * {@link #getVariableField(String)} or {@link #getVariableFields(String)}.
+ * Once decoded, the same field instance is returned on every request. Methods
+ * that need all fields, such as {@link #getDataFields()}, {@link #find(String)}
+ * or any method that modifies the record, decode the remaining fields first,
+ * after which the record behaves exactly like a {@link RecordImpl} and the
+ * raw bytes are released.
+ * </p>
+ *
+ * <p>
+ * Because decoding is deferred, errors in the data of a field are reported
+ * when the field is first accessed rather than when the record is read. If a
+ * field cannot be decoded by a method that needs all fields, no field is
+ * added to the record.
+ * </p>
+ *
+ * <p>
+ * The fields are decoded with the character converter of the reader that
+ * created the record, which is not thread-safe. A lazy record must therefore
+ * not be accessed from another thread while that reader is still in use.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class LazyRecordImpl extends RecordImpl {
+
+    private static final long serialVersionUID = -2958402317846102384L;
+
+    /**
+     * Decodes a single field of a lazily decoded record.
+     */
+    public static interface FieldDecoder {
+
+        /**
+         * Decodes the field stored at the given position.
+         *
+         * @param tag
+         *            the tag from the directory entry
+         * @param data
+         *            the raw record
+         * @param offset
+         *            the position of the field within the record
+         * @param length
+         *            the length of the field including the field
+         *            terminator
+         * @return VariableField - the decoded field
+         */
+        public VariableField decodeField(String tag, byte[] data, int offset, int length);
+
+    }
+
+    private transient byte[] data;
+
+    private transient String[] tags;
+
+    private transient int[] offsets;
+
+    private transient int[] lengths;
+
+    private transient VariableField[] decoded;
+
+    private transient FieldDecoder decoder;
+
+    /**
+     * Creates a new record from the raw record bytes and its directory.
+     *
+     * @param leader
+     *            the decoded leader
+     * @param data
+     *            the raw record, which is not copied
+     * @param tags
+     *            the tag of each directory entry
+     * @param offsets
+     *            the position of each field within <code>data</code>
+     * @param lengths
+     *            the length of each field including the field terminator
+     * @param decoder
+     *            the decoder used to decode the fields
+     */
+    public LazyRecordImpl(Leader leader, byte[] data, String[] tags, int[] offsets, int[] lengths,
+            FieldDecoder decoder) {
+        super();
+        setLeader(leader);
+        this.data = data;
+        this.tags = tags;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.decoded = new VariableField[tags.length];
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns true if every field has been decoded.
+     *
+     * @return boolean - true if the record is fully decoded
+     */
+    public boolean isDecoded() {
+        return data == null;
+    }
+
+    public void addVariableField(VariableField field) {
+        decodeAll();
+        super.addVariableField(field);
+    }
+
+    public void removeVariableField(VariableField field) {
+        decodeAll();
+        super.removeVariableField(field);
+    }
+
+    public ControlField getControlNumberField() {
+        if (isDecoded())
+            return super.getControlNumberField();
+        return (ControlField) getVariableField("001");
+    }
+
+    public List getControlFields() {
+        decodeAll();
+        return super.getControlFields();
+    }
+
+    public List getDataFields() {
+        decodeAll();
+        return super.getDataFields();
+    }
+
+    public VariableField getVariableField(String tag) {
+        if (isDecoded())
+            return super.getVariableField(tag);
+        if (Verifier.isControlNumberField(tag)) {
+            // a record holds a single control number field, the last one wins
+            for (int i = tags.length - 1; i >= 0; i--)
+                if (tags[i].equals(tag))
+                    return decode(i);
+            return null;
+        }
+        for (int i = 0; i < tags.length; i++)
+            if (tags[i].equals(tag))
+                return decode(i);
+        return null;
+    }
+
+    public List getVariableFields(String tag) {
+        if (isDecoded())
+            return super.getVariableFields(tag);
+        List fields = new ArrayList();
+        if (Verifier.isControlNumberField(tag)) {
+            VariableField field = getVariableField(tag);
+            if (field != null)
+                fields.add(field);
+            return fields;
+        }
+        for (int i = 0; i < tags.length; i++)
+            if (tags[i].equals(tag))
+                fields.add(decode(i));
+        return fields;
+    }
+
+    public List getVariableFields() {
+        decodeAll();
+        return super.getVariableFields();
+    }
+
+    public List find(Pattern pattern) {
+        decodeAll();
+        return super.find(pattern);
+    }
+
+    private VariableField decode(int i) {
+        if (decoded[i] == null)
+            decoded[i] = decoder.decodeField(tags[i], data, offsets[i], lengths[i]);
+        return decoded[i];
+    }
+
+    /**
+     * Decodes the remaining fields, adds all fields to the record in
+     * directory order and releases the raw record. The fields are only added
+     * once all of them have been decoded, so a field that cannot be decoded
+     * leaves the record unchanged.
+     */
+    private void decodeAll() {
+        if (isDecoded())
+            return;
+        for (int i = 0; i < tags.length; i++)
+            decode(i);
+        for (int i = 0; i < tags.length; i++)
+            super.addVariableField(decoded[i]);
+        data = null;
+        tags = null;
+        offsets = null;
+        lengths = null;
+        decoded = null;
+        decoder = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
+
+}
@@ -70,6 +70,17 @@ public class MarcFactoryImpl extends MarcFactory {
         return new ControlFieldImpl(tag, data);
     }
 
+    /**
+     * Creates a new control field with the given tag number and data and
+     * returns the instance. The tag is the shared tag string from
+     * {@link TagTable}.
+     * 
+     * @return ControlField
+     */
+    public ControlField newControlField(int tag, String data) {
+        return newControlField(TagTable.getTag(tag), data);
+    }
+
     /**
      * Returns a new data field instance.
      * 
@@ -89,6 +100,17 @@ public class MarcFactoryImpl extends MarcFactory {
         return new DataFieldImpl(tag, ind1, ind2);
     }
 
+    /**
+     * Creates a new data field with the given tag number and indicators and
+     * returns the instance. The tag is the shared tag string from
+     * {@link TagTable}.
+     * 
+     * @return DataField
+     */
+    public DataField newDataField(int tag, char ind1, char ind2) {
+        return newDataField(TagTable.getTag(tag), ind1, ind2);
+    }
+
     /**
      * Returns a new leader instance.
      * 
@@ -0,0 +1,643 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.marc.impl;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.marc4j.marc.VariableField;
+
+/**
+ * Represents a read-only MARC record packed into a few arrays.
+ *
+ * <p>
+ * The character data of all control fields and subfields is stored in one
+ * <code>char[]</code> per record. The tags, indicators, subfield codes and
+ * the offsets of the data are stored in primitive arrays, and the tags are
+ * shared, so a record takes about as much memory as its data plus a few
+ * bytes per field and subfield, instead of several objects per subfield as
+ * with {@link RecordImpl}. This makes it suitable for holding large numbers
+ * of records in memory.
+ * </p>
+ *
+ * <p>
+ * The fields and subfields returned by the record are views on the arrays
+ * that are created when they are requested. Two views on the same field or
+ * subfield of the same record are equal. The views and the lists returned by
+ * the record cannot be modified: the methods that would modify them throw an
+ * <code>UnsupportedOperationException</code>. Use {@link #unpack(MarcFactory)}
+ * to obtain a record that can be modified. A subfield or control field
+ * without data is packed as empty data. A view is serialized as an unpacked
+ * copy of its field or subfield.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class PackedRecordImpl implements Record {
+
+    private static final long serialVersionUID = -3418815208735418052L;
+
+    private Long id;
+
+    private String type;
+
+    private Leader leader;
+
+    // the tag of each field, control fields first
+    private String[] tags;
+
+    private int controlCount;
+
+    // two indicators per data field
+    private char[] indicators;
+
+    // the first subfield of each field and the number of subfields; a control
+    // field has a single subfield holding its data
+    private int[] firstSubfield;
+
+    private char[] codes;
+
+    // the start of the data of each subfield in the pool, and the end
+    private int[] offsets;
+
+    private char[] pool;
+
+    /**
+     * Creates a packed copy of a record.
+     *
+     * @param record
+     *            the record to pack
+     */
+    public PackedRecordImpl(Record record) {
+        id = record.getId();
+        type = record.getType();
+        leader = record.getLeader();
+        List controlFields = record.getControlFields();
+        List dataFields = record.getDataFields();
+        controlCount = controlFields.size();
+        int fieldCount = controlCount + dataFields.size();
+
+        int subfieldCount = controlCount;
+        int length = 0;
+        for (Iterator i = controlFields.iterator(); i.hasNext();)
+            length += length(((ControlField) i.next()).getData());
+        for (Iterator i = dataFields.iterator(); i.hasNext();) {
+            List subfields = ((DataField) i.next()).getSubfields();
+            subfieldCount += subfields.size();
+            for (Iterator j = subfields.iterator(); j.hasNext();)
+                length += length(((Subfield) j.next()).getData());
+        }
+
+        tags = new String[fieldCount];
+        indicators = new char[dataFields.size() * 2];
+        firstSubfield = new int[fieldCount + 1];
+        codes = new char[subfieldCount];
+        offsets = new int[subfieldCount + 1];
+        pool = new char[length];
+
+        int f = 0;
+        int s = 0;
+        for (Iterator i = controlFields.iterator(); i.hasNext(); f++) {
+            ControlField field = (ControlField) i.next();
+            tags[f] = intern(field.getTag());
+            firstSubfield[f] = s;
+            append(s++, field.getData());
+        }
+        for (Iterator i = dataFields.iterator(); i.hasNext(); f++) {
+            DataField field = (DataField) i.next();
+            tags[f] = intern(field.getTag());
+            indicators[(f - controlCount) * 2] = field.getIndicator1();
+            indicators[(f - controlCount) * 2 + 1] = field.getIndicator2();
+            firstSubfield[f] = s;
+            for (Iterator j = field.getSubfields().iterator(); j.hasNext();) {
+                Subfield subfield = (Subfield) j.next();
+                codes[s] = subfield.getCode();
+                append(s++, subfield.getData());
+            }
+        }
+        firstSubfield[f] = s;
+    }
+
+    private static int length(String data) {
+        return data == null ? 0 : data.length();
+    }
+
+    private void append(int subfield, String data) {
+        int start = offsets[subfield];
+        int length = length(data);
+        if (length > 0)
+            data.getChars(0, length, pool, start);
+        offsets[subfield + 1] = start + length;
+    }
+
+    /**
+     * Returns a copy of this record created with the given factory, which
+     * can be modified.
+     *
+     * @param factory
+     *            the factory used to create the record and its fields
+     * @return Record - the unpacked record
+     */
+    public Record unpack(MarcFactory factory) {
+        Record record = factory.newRecord(leader);
+        record.setId(id);
+        record.setType(type);
+        for (int f = 0; f < tags.length; f++) {
+            if (f < controlCount) {
+                record.addVariableField(factory.newControlField(tags[f], getData(firstSubfield[f])));
+                continue;
+            }
+            DataField field = factory.newDataField(tags[f], getIndicator(f, 0), getIndicator(f, 1));
+            for (int s = firstSubfield[f]; s < firstSubfield[f + 1]; s++)
+                field.addSubfield(factory.newSubfield(codes[s], getData(s)));
+            record.addVariableField(field);
+        }
+        return record;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setLeader(Leader leader) {
+        this.leader = leader;
+    }
+
+    public Leader getLeader() {
+        return leader;
+    }
+
+    public void addVariableField(VariableField field) {
+        throw new UnsupportedOperationException("A packed record cannot be modified");
+    }
+
+    public void removeVariableField(VariableField field) {
+        throw new UnsupportedOperationException("A packed record cannot be modified");
+    }
+
+    public List getVariableFields() {
+        return new FieldList(0, tags.length);
+    }
+
+    public List getControlFields() {
+        return new FieldList(0, controlCount);
+    }
+
+    public List getDataFields() {
+        return new FieldList(controlCount, tags.length);
+    }
+
+    public ControlField getControlNumberField() {
+        if (controlCount > 0 && Verifier.isControlNumberField(tags[0]))
+            return (ControlField) field(0);
+        return null;
+    }
+
+    public String getControlNumber() {
+        ControlField field = getControlNumberField();
+        return field == null ? null : field.getData();
+    }
+
+    public VariableField getVariableField(String tag) {
+        for (int f = start(tag); f < end(tag); f++)
+            if (tags[f].equals(tag))
+                return field(f);
+        return null;
+    }
+
+    public List getVariableFields(String tag) {
+        List fields = new ArrayList();
+        collect(tag, fields);
+        return fields;
+    }
+
+    public List getVariableFields(String[] tags) {
+        List fields = new ArrayList();
+        for (int i = 0; i < tags.length; i++)
+            collect(tags[i], fields);
+        return fields;
+    }
+
+    private void collect(String tag, List fields) {
+        for (int f = start(tag); f < end(tag); f++)
+            if (tags[f].equals(tag))
+                fields.add(field(f));
+    }
+
+    private int start(String tag) {
+        return Verifier.isControlField(tag) ? 0 : controlCount;
+    }
+
+    private int end(String tag) {
+        return Verifier.isControlField(tag) ? controlCount : tags.length;
+    }
+
+    public List find(String pattern) {
+        return find(PatternCache.compile(pattern));
+    }
+
+    public List find(String tag, String pattern) {
+        return find(tag, PatternCache.compile(pattern));
+    }
+
+    public List find(String[] tag, String pattern) {
+        return find(tag, PatternCache.compile(pattern));
+    }
+
+    public List find(Pattern pattern) {
+        List result = new ArrayList();
+        for (int f = 0; f < tags.length; f++)
+            if (find(f, pattern))
+                result.add(field(f));
+        return result;
+    }
+
+    public List find(String tag, Pattern pattern) {
+        List result = new ArrayList();
+        for (int f = start(tag); f < end(tag); f++)
+            if (tags[f].equals(tag) && find(f, pattern))
+                result.add(field(f));
+        return result;
+    }
+
+    public List find(String[] tag, Pattern pattern) {
+        List result = new ArrayList();
+        for (int i = 0; i < tag.length; i++)
+            for (int f = start(tag[i]); f < end(tag[i]); f++)
+                if (tags[f].equals(tag[i]) && find(f, pattern))
+                    result.add(field(f));
+        return result;
+    }
+
+    private boolean find(int field, Pattern p) {
+        Matcher m = p.matcher("");
+        for (int s = firstSubfield[field]; s < firstSubfield[field + 1]; s++) {
+            m.reset(CharBuffer.wrap(pool, offsets[s], offsets[s + 1] - offsets[s]));
+            if (m.find())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a string representation of this record, in the same format as
+     * {@link RecordImpl#toString()}.
+     *
+     * @return String - a string representation of this record
+     */
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("LEADER ");
+        sb.append(getLeader().toString());
+        sb.append('\n');
+        for (int f = 0; f < tags.length; f++) {
+            sb.append(field(f).toString());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private VariableField field(int f) {
+        if (f < controlCount)
+            return new PackedControlField(f);
+        return new PackedDataField(f);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (int f = 0; f < tags.length; f++)
+            tags[f] = intern(tags[f]);
+    }
+
+    /**
+     * Returns the shared instance of a tag, the one from {@link TagTable}
+     * for a tag of three digits.
+     */
+    private static String intern(String tag) {
+        if (TagTable.getTagNumber(tag) < 0)
+            return tag.intern();
+        return TagTable.intern(tag);
+    }
+
+    private char getIndicator(int field, int n) {
+        return indicators[(field - controlCount) * 2 + n];
+    }
+
+    private String getData(int subfield) {
+        return new String(pool, offsets[subfield], offsets[subfield + 1] - offsets[subfield]);
+    }
+
+    /**
+     * The fields from one position in the record up to another.
+     */
+    private class FieldList extends AbstractList {
+
+        private int from;
+
+        private int to;
+
+        FieldList(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public Object get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            return field(from + index);
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+    }
+
+    /**
+     * A view on a field of the record.
+     */
+    private abstract class PackedField implements VariableField {
+
+        private static final long serialVersionUID = 4016652230497128377L;
+
+        final int field;
+
+        PackedField(int field) {
+            this.field = field;
+        }
+
+        PackedRecordImpl record() {
+            return PackedRecordImpl.this;
+        }
+
+        public void setId(Long id) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public Long getId() {
+            return null;
+        }
+
+        public String getTag() {
+            return tags[field];
+        }
+
+        public void setTag(String tag) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public boolean find(String pattern) {
+            return find(PatternCache.compile(pattern));
+        }
+
+        public boolean find(Pattern pattern) {
+            return PackedRecordImpl.this.find(field, pattern);
+        }
+
+        public int compareTo(Object obj) {
+            if (!(obj instanceof VariableField))
+                throw new ClassCastException("A VariableField object expected");
+            return getTag().compareTo(((VariableField) obj).getTag());
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PackedField))
+                return false;
+            PackedField other = (PackedField) obj;
+            return other.record() == record() && other.field == field;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(record()) * 31 + field;
+        }
+
+    }
+
+    private class PackedControlField extends PackedField implements ControlField {
+
+        private static final long serialVersionUID = -7742150851216532980L;
+
+        PackedControlField(int field) {
+            super(field);
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            return new ControlFieldImpl(getTag(), getData());
+        }
+
+        public String getData() {
+            return PackedRecordImpl.this.getData(firstSubfield[field]);
+        }
+
+        public void setData(String data) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public String toString() {
+            return getTag() + " " + getData();
+        }
+
+    }
+
+    private class PackedDataField extends PackedField implements DataField {
+
+        private static final long serialVersionUID = 1948066314724598371L;
+
+        PackedDataField(int field) {
+            super(field);
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            DataField copy = new DataFieldImpl(getTag(), getIndicator1(), getIndicator2());
+            for (int s = firstSubfield[field]; s < firstSubfield[field + 1]; s++)
+                copy.addSubfield(new SubfieldImpl(codes[s], PackedRecordImpl.this.getData(s)));
+            return copy;
+        }
+
+        public char getIndicator1() {
+            return getIndicator(field, 0);
+        }
+
+        public void setIndicator1(char ind1) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public char getIndicator2() {
+            return getIndicator(field, 1);
+        }
+
+        public void setIndicator2(char ind2) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public List getSubfields() {
+            return new AbstractList() {
+                public Object get(int index) {
+                    if (index < 0 || index >= size())
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+                    return new PackedSubfield(firstSubfield[field] + index);
+                }
+
+                public int size() {
+                    return firstSubfield[field + 1] - firstSubfield[field];
+                }
+            };
+        }
+
+        public List getSubfields(char code) {
+            List subfields = new ArrayList();
+            for (int s = firstSubfield[field]; s < firstSubfield[field + 1]; s++)
+                if (codes[s] == code)
+                    subfields.add(new PackedSubfield(s));
+            return subfields;
+        }
+
+        public Subfield getSubfield(char code) {
+            for (int s = firstSubfield[field]; s < firstSubfield[field + 1]; s++)
+                if (codes[s] == code)
+                    return new PackedSubfield(s);
+            return null;
+        }
+
+        public void addSubfield(Subfield subfield) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public void addSubfield(int index, Subfield subfield) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public void removeSubfield(Subfield subfield) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public String toString() {
+            StringBuffer sb = new StringBuffer();
+            sb.append(getTag());
+            sb.append(' ');
+            sb.append(getIndicator1());
+            sb.append(getIndicator2());
+            for (int s = firstSubfield[field]; s < firstSubfield[field + 1]; s++) {
+                sb.append('$');
+                sb.append(codes[s]);
+                sb.append(pool, offsets[s], offsets[s + 1] - offsets[s]);
+            }
+            return sb.toString();
+        }
+
+    }
+
+    private class PackedSubfield implements Subfield {
+
+        private static final long serialVersionUID = -2661519042553271860L;
+
+        private final int subfield;
+
+        PackedSubfield(int subfield) {
+            this.subfield = subfield;
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            return new SubfieldImpl(getCode(), getData());
+        }
+
+        PackedRecordImpl record() {
+            return PackedRecordImpl.this;
+        }
+
+        public void setId(Long id) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public Long getId() {
+            return null;
+        }
+
+        public char getCode() {
+            return codes[subfield];
+        }
+
+        public void setCode(char code) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public String getData() {
+            return PackedRecordImpl.this.getData(subfield);
+        }
+
+        public void setData(String data) {
+            throw new UnsupportedOperationException("A packed record cannot be modified");
+        }
+
+        public boolean find(String pattern) {
+            return find(PatternCache.compile(pattern));
+        }
+
+        public boolean find(Pattern pattern) {
+            return pattern.matcher(
+                    CharBuffer.wrap(pool, offsets[subfield], offsets[subfield + 1] - offsets[subfield])).find();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PackedSubfield))
+                return false;
+            PackedSubfield other = (PackedSubfield) obj;
+            return other.record() == record() && other.subfield == subfield;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(record()) * 31 + subfield;
+        }
+
+        public String toString() {
+            return "$" + getCode() + getData();
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.marc.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the most recently used compiled regular expressions, so that the
+ * <code>find</code> methods that take a regular expression as a
+ * <code>String</code> do not compile it again for every field.
+ *
+ * <p>
+ * The cache holds at most {@link #MAX_SIZE} patterns. Lookups do not lock,
+ * so it can be used by any number of threads. Recency is approximate: every
+ * pattern added to the cache starts a new period, and a lookup marks a
+ * pattern as used in the current period. When the cache is full the patterns
+ * that were last used in the oldest periods are discarded, an eighth of the
+ * cache at a time.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class PatternCache {
+
+    /**
+     * The maximum number of patterns held by the cache.
+     */
+    public static final int MAX_SIZE = 256;
+
+    private static final ConcurrentMap patterns = new ConcurrentHashMap();
+
+    // the current period, advanced when a pattern is added
+    private static final AtomicLong period = new AtomicLong();
+
+    private static final Object evictLock = new Object();
+
+    private PatternCache() {
+    }
+
+    /**
+     * Returns the compiled form of a regular expression.
+     *
+     * @param regex
+     *            the regular expression
+     * @return Pattern - the compiled pattern
+     * @throws java.util.regex.PatternSyntaxException
+     *             if the regular expression is invalid
+     */
+    public static Pattern compile(String regex) {
+        Entry entry = (Entry) patterns.get(regex);
+        if (entry != null) {
+            long now = period.get();
+            // only written once per period, so hot patterns are not
+            // written on every lookup
+            if (entry.lastUsed != now)
+                entry.lastUsed = now;
+            return entry.pattern;
+        }
+        entry = new Entry(Pattern.compile(regex), period.incrementAndGet());
+        Entry cached = (Entry) patterns.putIfAbsent(regex, entry);
+        if (cached != null)
+            return cached.pattern;
+        if (patterns.size() > MAX_SIZE)
+            evict();
+        return entry.pattern;
+    }
+
+    /**
+     * Discards the least recently used patterns until the cache holds seven
+     * eighths of its maximum size.
+     */
+    private static void evict() {
+        synchronized (evictLock) {
+            if (patterns.size() <= MAX_SIZE)
+                return;
+            List entries = new ArrayList(patterns.entrySet());
+            Collections.sort(entries, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    long used1 = ((Entry) ((Map.Entry) o1).getValue()).lastUsed;
+                    long used2 = ((Entry) ((Map.Entry) o2).getValue()).lastUsed;
+                    return used1 < used2 ? -1 : (used1 == used2 ? 0 : 1);
+                }
+            });
+            int excess = entries.size() - (MAX_SIZE - MAX_SIZE / 8);
+            for (Iterator i = entries.iterator(); excess > 0 && i.hasNext(); excess--) {
+                Map.Entry e = (Map.Entry) i.next();
+                patterns.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final Pattern pattern;
+
+        private volatile long lastUsed;
+
+        Entry(Pattern pattern, long lastUsed) {
+            this.pattern = pattern;
+            this.lastUsed = lastUsed;
+        }
+
+    }
+
+}
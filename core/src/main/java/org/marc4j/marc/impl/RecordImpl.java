@@ -23,6 +23,7 @@ package org.marc4j.marc.impl;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.marc4j.marc.ControlField;
 import org.marc4j.marc.IllegalAddException;
@@ -234,6 +235,10 @@ public class RecordImpl implements Record {
     }
 
     public List find(String pattern) {
+        return find(PatternCache.compile(pattern));
+    }
+
+    public List find(Pattern pattern) {
         List result = new ArrayList();
         Iterator i = controlFields.iterator();
         while (i.hasNext()) {
@@ -251,6 +256,10 @@ public class RecordImpl implements Record {
     }
 
     public List find(String tag, String pattern) {
+        return find(tag, PatternCache.compile(pattern));
+    }
+
+    public List find(String tag, Pattern pattern) {
         List result = new ArrayList();
         Iterator i = getVariableFields(tag).iterator();
         while (i.hasNext()) {
@@ -262,6 +271,10 @@ public class RecordImpl implements Record {
     }
 
     public List find(String[] tag, String pattern) {
+        return find(tag, PatternCache.compile(pattern));
+    }
+
+    public List find(String[] tag, Pattern pattern) {
         List result = new ArrayList();
         Iterator i = getVariableFields(tag).iterator();
         while (i.hasNext()) {
@@ -1,6 +1,7 @@
 package org.marc4j.marc.impl;
 
 import java.util.Collections;
+import java.util.List;
 
 import org.marc4j.marc.IllegalAddException;
 import org.marc4j.marc.VariableField;
@@ -8,6 +9,17 @@ import org.marc4j.marc.impl.RecordImpl;
 import org.marc4j.marc.impl.Verifier;
 
 /**
+ * Represents a MARC record that keeps its control fields and its data fields
+ * sorted by tag. Fields with equal tags are kept in the order they were
+ * added.
+ *
+ * <p>
+ * A field added through {@link #addVariableField(VariableField)} is inserted
+ * at its position, found with a binary search, so building a record takes
+ * time proportional to n log n comparisons in the number of fields. If a
+ * field list was changed directly since the last field was added, the list is
+ * sorted again as a whole.
+ * </p>
  * 
  * @author Robert Haschart
  * @version $Id$
@@ -20,10 +32,17 @@ public class SortedRecordImpl extends RecordImpl
      */
     private static final long serialVersionUID = -5870251915056214892L;
 
+    // the modification counts of the field lists when they were last known
+    // to be sorted
+    private int controlModCount = 0;
+
+    private int dataModCount = 0;
 
 	public SortedRecordImpl()
     {
         super();
+        controlFields = new FieldList();
+        dataFields = new FieldList();
     }
     
     public void addVariableField(VariableField field) {
@@ -32,20 +51,71 @@ public class SortedRecordImpl extends RecordImpl
 
         String tag = field.getTag();
         if (Verifier.isControlNumberField(tag)) {
-            if (Verifier.hasControlNumberField(getControlFields()))
-                getControlFields().set(0, field);
-            else
-                getControlFields().add(0, field);
-            Collections.sort(controlFields);
+            boolean sorted = isSorted(controlFields, controlModCount);
+            if (!sorted) {
+                if (Verifier.hasControlNumberField(getControlFields()))
+                    getControlFields().set(0, field);
+                else
+                    getControlFields().add(0, field);
+            } else {
+                // the field replaces the first field, as in RecordImpl
+                if (Verifier.hasControlNumberField(getControlFields()))
+                    getControlFields().remove(0);
+                insert(controlFields, field, true);
+            }
+            controlModCount = sort(controlFields, sorted);
         } else if (Verifier.isControlField(tag)) {
-            getControlFields().add(field);
-            Collections.sort(controlFields);
+            boolean sorted = isSorted(controlFields, controlModCount);
+            if (sorted)
+                insert(controlFields, field, false);
+            else
+                getControlFields().add(field);
+            controlModCount = sort(controlFields, sorted);
         } else {
-            getDataFields().add(field);
-            Collections.sort(dataFields);
+            boolean sorted = isSorted(dataFields, dataModCount);
+            if (sorted)
+                insert(dataFields, field, false);
+            else
+                getDataFields().add(field);
+            dataModCount = sort(dataFields, sorted);
         }
 
     }
 
+    private static boolean isSorted(List fields, int modCount) {
+        return fields instanceof FieldList
+                && ((FieldList) fields).getModCount() == modCount;
+    }
+
+    /**
+     * Sorts a field list unless it is already sorted, and returns its
+     * modification count.
+     */
+    private static int sort(List fields, boolean sorted) {
+        if (!sorted)
+            Collections.sort(fields);
+        if (fields instanceof FieldList)
+            return ((FieldList) fields).getModCount();
+        return -1;
+    }
+
+    /**
+     * Inserts a field into a sorted list before the fields with an equal tag
+     * if <code>first</code> is true and after them otherwise, which is where
+     * a stable sort puts a field added at the start or at the end.
+     */
+    private static void insert(List fields, VariableField field, boolean first) {
+        int low = 0;
+        int high = fields.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = ((Comparable) fields.get(mid)).compareTo(field);
+            if (cmp < 0 || (cmp == 0 && !first))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        fields.add(low, field);
+    }
 
 }
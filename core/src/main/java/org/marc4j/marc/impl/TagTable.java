@@ -0,0 +1,124 @@
+// $Id$
+/**
+ * Copyright (C) 2004 Bas Peters
+ *
+ * This file is part of MARC4J
+ *
+ * MARC4J is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * MARC4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with MARC4J; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.marc4j.marc.impl;
+
+import java.nio.charset.Charset;
+
+/**
+ * Holds one shared <code>String</code> instance for each of the tags
+ * <code>000</code> to <code>999</code>.
+ *
+ * <p>
+ * The fields created by MARC4J use these instances for their tags, so the
+ * millions of fields of a large set of records share a thousand tag strings
+ * instead of each holding its own copy.
+ * </p>
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class TagTable {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String[] TAGS = new String[1000];
+
+    static {
+        for (int i = 0; i < TAGS.length; i++) {
+            char[] tag = { (char) ('0' + i / 100), (char) ('0' + i / 10 % 10), (char) ('0' + i % 10) };
+            TAGS[i] = new String(tag).intern();
+        }
+    }
+
+    private TagTable() {
+    }
+
+    /**
+     * Returns the shared tag for a tag number.
+     *
+     * @param number
+     *            the tag number, from 0 to 999
+     * @return String - the tag of three digits
+     * @throws IllegalArgumentException
+     *             if the number is not between 0 and 999
+     */
+    public static String getTag(int number) {
+        if (number < 0 || number >= TAGS.length)
+            throw new IllegalArgumentException("Invalid tag number: " + number);
+        return TAGS[number];
+    }
+
+    /**
+     * Returns the number of a tag of three digits, or -1 for any other tag.
+     *
+     * @param tag
+     *            the tag
+     * @return int - the tag number, or -1
+     */
+    public static int getTagNumber(String tag) {
+        if (tag == null || tag.length() != 3)
+            return -1;
+        int number = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = tag.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Returns the shared instance of a tag of three digits, or the tag itself
+     * for any other tag.
+     *
+     * @param tag
+     *            the tag
+     * @return String - the shared tag
+     */
+    public static String intern(String tag) {
+        int number = getTagNumber(tag);
+        return number < 0 ? tag : TAGS[number];
+    }
+
+    /**
+     * Returns the shared instance of the tag in three bytes of a record,
+     * without creating a <code>String</code> when the tag consists of three
+     * digits.
+     *
+     * @param data
+     *            the bytes of the record
+     * @param offset
+     *            the position of the tag
+     * @return String - the tag
+     */
+    public static String getTag(byte[] data, int offset) {
+        int number = 0;
+        for (int i = offset; i < offset + 3; i++) {
+            int b = data[i];
+            if (b < '0' || b > '9')
+                return new String(data, offset, 3, ISO_8859_1);
+            number = number * 10 + (b - '0');
+        }
+        return TAGS[number];
+    }
+
+}
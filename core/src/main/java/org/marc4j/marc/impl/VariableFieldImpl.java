@@ -45,8 +45,15 @@ public abstract class VariableFieldImpl implements VariableField {
         this.setTag(tag);
     }
 
+    /**
+     * Sets the tag. A tag of three digits is replaced by the equal shared
+     * instance from {@link TagTable}.
+     * 
+     * @param tag
+     *            the tag name
+     */
     public void setTag(String tag) {
-        this.tag = tag;
+        this.tag = TagTable.intern(tag);
     }
 
     public String getTag() {
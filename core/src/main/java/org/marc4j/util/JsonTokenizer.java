@@ -0,0 +1,461 @@
+package org.marc4j.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A strict JSON tokenizer that reads UTF-8 encoded bytes straight from an
+ * input stream.
+ * <p>
+ * The tokenizer produces the same events as {@link JsonParser}, with the same
+ * member names, so it can be used in its place to read well-formed input such
+ * as the output of {@link org.marc4j.MarcJsonWriter}. Unlike
+ * <code>JsonParser</code> it does not decode the input through a
+ * <code>Reader</code>: strings are decoded from the byte buffer into a
+ * reusable character buffer, and member values are returned without quotes
+ * and with all escapes already applied. In exchange it accepts only strict
+ * JSON: member names must be quoted, strings must use double quotes and may
+ * not contain unescaped control characters, and comments are not allowed.
+ * The input is a sequence of objects, optionally separated by white space
+ * or commas.
+ * <p>
+ * Malformed input is reported with a {@link JsonParser.Escape}, like the
+ * errors of <code>JsonParser</code>.
+ *
+ * @author Bas Peters
+ * @version $Revision$
+ */
+public class JsonTokenizer
+{
+    private InputStream in;
+    private byte[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private long offset = 0;
+    private char[] chars = new char[256];
+
+    private int evtCode = 0;
+    private String mbrName = "";
+    private String mbrValue = null;
+
+    // the open objects and arrays, with the member names they report
+    private boolean[] frameArray = new boolean[16];
+    private String[] frameName = new String[16];
+    private int depth = 0;
+    private boolean needComma = false;
+
+    /**
+     * Constructs a tokenizer for the specified input stream.
+     *
+     * @param in
+     *            the UTF-8 encoded input
+     */
+    public JsonTokenizer(InputStream in)
+    {
+        this.in = in;
+        this.buf = new byte[8192];
+    }
+
+    /**
+     * Constructs a tokenizer for a part of a byte array, for example a single
+     * line of newline-delimited JSON. The array is read in place.
+     *
+     * @param bytes
+     *            the UTF-8 encoded input
+     * @param off
+     *            the offset of the input in the array
+     * @param len
+     *            the number of bytes
+     */
+    public JsonTokenizer(byte[] bytes, int off, int len)
+    {
+        this.buf = bytes;
+        this.pos = off;
+        this.limit = off + len;
+        this.offset = -off;
+    }
+
+    /**
+     * Returns the current event code, one of the <code>EVT_</code> constants
+     * of {@link JsonParser}, or 0 before the first event.
+     */
+    public int getEventCode()
+    {
+        return evtCode;
+    }
+
+    /**
+     * Returns the member name of the current event, using the same rules as
+     * {@link JsonParser#getMemberName()}.
+     */
+    public String getMemberName()
+    {
+        return mbrName;
+    }
+
+    /**
+     * Returns the value of the current member event. Strings are returned
+     * unquoted and unescaped, other values as they appear in the input.
+     */
+    public String getMemberValue()
+    {
+        return mbrValue;
+    }
+
+    /**
+     * Closes the input stream.
+     */
+    public void close()
+    {
+        if (in == null)
+            return;
+        try
+        {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            throw new JsonParser.Escape(JsonParser.Escape.IOERROR, "I/O Exception: " + e, e);
+        }
+    }
+
+    /**
+     * Reads the next event from the input and returns its code.
+     */
+    public int next()
+    {
+        if (evtCode == JsonParser.EVT_INPUT_ENDED)
+            return(evtCode);
+        mbrValue = null;
+        if (evtCode == 0 && peek() == 0xEF)
+        {
+            // skip a byte order mark
+            pos++;
+            if (read() != 0xBB || read() != 0xBF)
+                throw error("Invalid byte order mark");
+        }
+        if (depth == 0)
+        {
+            int c = skipWhitespace();
+            while (c == ',')
+            {
+                pos++;
+                c = skipWhitespace();
+            }
+            if (c == -1)
+            {
+                mbrName = null;
+                return(evtCode = JsonParser.EVT_INPUT_ENDED);
+            }
+            if (c != '{')
+                throw error("Expected an object");
+            pos++;
+            mbrName = "";
+            push(false, mbrName);
+            return(evtCode = JsonParser.EVT_OBJECT_BEGIN);
+        }
+
+        boolean array = frameArray[depth - 1];
+        int c = skipWhitespace();
+        if (c == (array ? ']' : '}'))
+        {
+            pos++;
+            mbrName = frameName[--depth];
+            frameName[depth] = null;
+            needComma = true;
+            return(evtCode = array ? JsonParser.EVT_ARRAY_ENDED : JsonParser.EVT_OBJECT_ENDED);
+        }
+        if (needComma)
+        {
+            if (c != ',')
+                throw error("Expected ',' or '" + (array ? ']' : '}') + "'");
+            pos++;
+            c = skipWhitespace();
+        }
+
+        String name;
+        if (array)
+        {
+            name = frameName[depth - 1];
+        }
+        else
+        {
+            if (c != '"')
+                throw error("Expected a quoted member name");
+            pos++;
+            name = readString();
+            if (skipWhitespace() != ':')
+                throw error("Expected ':'");
+            pos++;
+            c = skipWhitespace();
+        }
+        mbrName = name;
+
+        switch (c)
+        {
+            case '{':
+                pos++;
+                push(false, name);
+                return(evtCode = JsonParser.EVT_OBJECT_BEGIN);
+            case '[':
+                pos++;
+                push(true, name);
+                return(evtCode = JsonParser.EVT_ARRAY_BEGIN);
+            case '"':
+                pos++;
+                mbrValue = readString();
+                break;
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                mbrValue = readLiteral();
+        }
+        needComma = true;
+        return(evtCode = JsonParser.EVT_OBJECT_MEMBER);
+    }
+
+    private void push(boolean array, String name)
+    {
+        if (depth == frameArray.length)
+        {
+            boolean[] newArray = new boolean[depth * 2];
+            String[] newName = new String[depth * 2];
+            System.arraycopy(frameArray, 0, newArray, 0, depth);
+            System.arraycopy(frameName, 0, newName, 0, depth);
+            frameArray = newArray;
+            frameName = newName;
+        }
+        frameArray[depth] = array;
+        frameName[depth] = name;
+        depth++;
+        needComma = false;
+    }
+
+    /**
+     * Decodes a string up to its closing quote, the opening quote has already
+     * been read.
+     */
+    private String readString()
+    {
+        int n = 0;
+        while (true)
+        {
+            // plain ASCII is copied without further checks
+            while (pos < limit)
+            {
+                int b = buf[pos];
+                if (b < 0x20 || b == '"' || b == '\\')
+                    break;
+                if (n == chars.length)
+                    growChars();
+                chars[n++] = (char) b;
+                pos++;
+            }
+            int b = read();
+            if (b == '"')
+                return(new String(chars, 0, n));
+            if (n + 2 > chars.length)
+                growChars();
+            if (b == '\\')
+            {
+                chars[n++] = readEscape();
+            }
+            else if (b >= 0x80)
+            {
+                n = decode(b, n);
+            }
+            else if (b == -1)
+            {
+                throw error("Unterminated string");
+            }
+            else if (b < 0x20)
+            {
+                throw error("Unescaped control character in string");
+            }
+            else
+            {
+                // the fast loop stopped at the end of the buffer
+                chars[n++] = (char) b;
+            }
+        }
+    }
+
+    private char readEscape()
+    {
+        int b = read();
+        switch (b)
+        {
+            case '"':  return('"');
+            case '\\': return('\\');
+            case '/':  return('/');
+            case 'b':  return('\b');
+            case 'f':  return('\f');
+            case 'n':  return('\n');
+            case 'r':  return('\r');
+            case 't':  return('\t');
+            case 'u':
+            {
+                int value = 0;
+                for (int i = 0; i < 4; i++)
+                {
+                    int digit = Character.digit((char) read(), 16);
+                    if (digit < 0)
+                        throw error("Invalid \\u escape");
+                    value = (value << 4) | digit;
+                }
+                return((char) value);
+            }
+            default:
+                throw error("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Decodes a multi-byte UTF-8 sequence that starts with the given byte.
+     * Malformed sequences are replaced with U+FFFD.
+     */
+    private int decode(int b, int n)
+    {
+        int extra;
+        int value;
+        if (b >= 0xC2 && b <= 0xDF)
+        {
+            extra = 1;
+            value = b & 0x1F;
+        }
+        else if (b >= 0xE0 && b <= 0xEF)
+        {
+            extra = 2;
+            value = b & 0x0F;
+        }
+        else if (b >= 0xF0 && b <= 0xF4)
+        {
+            extra = 3;
+            value = b & 0x07;
+        }
+        else
+        {
+            chars[n++] = '\uFFFD';
+            return(n);
+        }
+        for (int i = 0; i < extra; i++)
+        {
+            int next = peek();
+            if ((next & 0xC0) != 0x80)
+            {
+                chars[n++] = '\uFFFD';
+                return(n);
+            }
+            pos++;
+            value = (value << 6) | (next & 0x3F);
+        }
+        if ((extra == 2 && (value < 0x800 || (value >= 0xD800 && value <= 0xDFFF)))
+                || (extra == 3 && (value < 0x10000 || value > 0x10FFFF)))
+        {
+            chars[n++] = '\uFFFD';
+        }
+        else if (value >= 0x10000)
+        {
+            value -= 0x10000;
+            chars[n++] = (char) (0xD800 | (value >> 10));
+            chars[n++] = (char) (0xDC00 | (value & 0x3FF));
+        }
+        else
+        {
+            chars[n++] = (char) value;
+        }
+        return(n);
+    }
+
+    /**
+     * Reads a number or one of the literals true, false and null.
+     */
+    private String readLiteral()
+    {
+        int n = 0;
+        while (true)
+        {
+            int b = peek();
+            if (b == -1 || b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t'
+                    || b == '\r' || b == '\n')
+                break;
+            if (b < 0x20 || b >= 0x80)
+                throw error("Invalid value");
+            if (n == chars.length)
+                growChars();
+            chars[n++] = (char) b;
+            pos++;
+        }
+        char first = (n > 0) ? chars[0] : 0;
+        if (first != '-' && (first < '0' || first > '9') && first != 't' && first != 'f'
+                && first != 'n')
+            throw error("Invalid value");
+        return(new String(chars, 0, n));
+    }
+
+    private void growChars()
+    {
+        char[] newChars = new char[chars.length * 2];
+        System.arraycopy(chars, 0, newChars, 0, chars.length);
+        chars = newChars;
+    }
+
+    /**
+     * Skips white space and returns the next byte without consuming it, or -1
+     * at the end of the input.
+     */
+    private int skipWhitespace()
+    {
+        while (true)
+        {
+            int b = peek();
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                return(b);
+            pos++;
+        }
+    }
+
+    private int peek()
+    {
+        if (pos == limit && !fill())
+            return(-1);
+        return(buf[pos] & 0xFF);
+    }
+
+    private int read()
+    {
+        if (pos == limit && !fill())
+            return(-1);
+        return(buf[pos++] & 0xFF);
+    }
+
+    private boolean fill()
+    {
+        if (in == null)
+            return(false);
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        try
+        {
+            int count;
+            while ((count = in.read(buf)) == 0)
+                ;
+            if (count < 0)
+                return(false);
+            limit = count;
+            return(true);
+        }
+        catch (IOException e)
+        {
+            throw new JsonParser.Escape(JsonParser.Escape.IOERROR, "I/O Exception: " + e, e);
+        }
+    }
+
+    private JsonParser.Escape error(String message)
+    {
+        return new JsonParser.Escape(JsonParser.Escape.MALFORMED, message + "; at byte "
+                + (offset + pos));
+    }
+
+}
@@ -19,6 +19,7 @@ public class AllTests {
         suite.addTest(PermissiveReaderTest.suite());
         suite.addTest(JsonReaderTest.suite());
         suite.addTest(JsonWriterTest.suite());
+        suite.addTest(ConverterTest.suite());
         return suite;
     }
 
@@ -0,0 +1,273 @@
+package org.marc4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.marc4j.converter.impl.AnselToUnicode;
+import org.marc4j.converter.impl.CodeTable;
+import org.marc4j.converter.impl.CodeTableHandler;
+import org.marc4j.converter.impl.CodeTables;
+import org.marc4j.converter.impl.CompactCodeTable;
+import org.marc4j.converter.impl.CompactReverseCodeTable;
+import org.marc4j.converter.impl.Iso5426ToUnicode;
+import org.marc4j.converter.impl.Iso6937ToUnicode;
+import org.marc4j.converter.impl.ReverseCodeTableHash;
+import org.marc4j.converter.impl.UnicodeToAnsel;
+import org.marc4j.converter.impl.UnicodeToIso5426;
+import org.marc4j.converter.impl.UnicodeToIso6937;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+public class ConverterTest extends TestCase {
+
+    public void testCompactCodeTable() throws Exception {
+        CodeTable expected = new CodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        CompactCodeTable table = new CompactCodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        for (int mode = 0; mode < 128; mode++) {
+            for (int c = 0; c < 0x200; c++) {
+                assertEquals(expected.getChar(c, mode), table.getChar(c, mode));
+                assertEquals(expected.isCombining(c, mode, mode), table.isCombining(c, mode, mode));
+            }
+        }
+
+        CodeTableHandler handler = new CodeTableHandler();
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(AnselToUnicode.class.getResourceAsStream("codetables.xml")));
+        HashMap eacc = (HashMap) handler.getCharSets().get(new Integer(0x31));
+        Iterator i = eacc.keySet().iterator();
+        while (i.hasNext()) {
+            int c = ((Integer) i.next()).intValue();
+            assertEquals(expected.getChar(c, 0x31), table.getChar(c, 0x31));
+            assertEquals(expected.getChar(c + 0x80, 0x31), table.getChar(c + 0x80, 0x31));
+            assertEquals(expected.getChar(c + 1, 0x31), table.getChar(c + 1, 0x31));
+        }
+    }
+
+    public void testAnselToUnicode() throws Exception {
+        AnselToUnicode converter = new AnselToUnicode();
+        byte[] ascii = "Summerland / Michael Chabon.".getBytes("US-ASCII");
+        assertEquals("Summerland / Michael Chabon.", converter.convert(ascii));
+        assertEquals("Chabon", converter.convert(ascii, 21, 6));
+        // a NUL byte has no mapping and is not passed through
+        assertEquals("a<U+0000>b", converter.convert(new byte[] { 'a', 0, 'b' }));
+        assertEquals("a<U+0000>b", converter.convert(new char[] { 'a', 0, 'b' }));
+        // acute accent before the letter it decorates, and an escape to
+        // the Greek character set
+        byte[] marc8 = { 'd', (byte) 0xE2, 'e', 's', 0x1B, 'g', 'a', 0x1B, 's', '!' };
+        assertEquals("de\u0301s\u03b1!", converter.convert(marc8));
+        assertEquals(converter.convert(new String(marc8, "ISO-8859-1")), converter.convert(marc8));
+    }
+
+    public void testCompactReverseCodeTable() throws Exception {
+        ReverseCodeTableHash expected = new ReverseCodeTableHash(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        CompactReverseCodeTable table = new CompactReverseCodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        for (int c = 0; c < 65536; c++) {
+            Character ch = new Character((char) c);
+            assertEquals(expected.charHasMatch(ch), table.charHasMatch((char) c));
+            assertEquals(expected.isCombining(ch), table.isCombining((char) c));
+            if (!table.charHasMatch((char) c))
+                continue;
+            expected.init();
+            table.init();
+            assertEquals(expected.getBestCharSet(ch), table.getBestCharSet((char) c));
+            for (int charset = 0x30; charset < 0x80; charset++) {
+                char[] marc8 = table.getCharEntry((char) c, charset);
+                char[] expectedMarc8 = expected.getCharEntry(ch, charset);
+                assertEquals(expectedMarc8 == null ? null : new String(expectedMarc8),
+                        marc8 == null ? null : new String(marc8));
+            }
+        }
+    }
+
+    public void testUnicodeToAnsel() throws Exception {
+        UnicodeToAnsel converter = new UnicodeToAnsel();
+        assertEquals("Summerland / Michael Chabon.", converter.convert("Summerland / Michael Chabon."));
+        // the combining acute accent is placed before the letter
+        assertEquals("d\u00E2es", converter.convert("de\u0301s"));
+        // a precomposed character without a MARC-8 equivalent is decomposed
+        assertEquals("caf\u00E2e", converter.convert("caf\u00e9"));
+        // a character without a MARC-8 equivalent is written as a character reference
+        assertEquals("a&#x263A;b", converter.convert("a\u263Ab"));
+        // the output buffer grows for long input and is reused for short input
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 200; i++)
+            sb.append("de\u0301s ");
+        String marc8 = converter.convert(sb.toString());
+        assertEquals(1000, marc8.length());
+        assertEquals("a", converter.convert("a"));
+        String unicode = "de\u0301s \u03b1\u03b2 \u05d0 cafe\u0301";
+        assertEquals(unicode, new AnselToUnicode().convert(converter.convert(unicode)));
+    }
+
+    public void testUnicodeToAnselReverseCodeTable() throws Exception {
+        final ReverseCodeTableHash hash = new ReverseCodeTableHash(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        String unicode = "de\u0301s \u03b1\u03b2 \u05d0 cafe\u0301 a\u263Ab";
+        String expected = new UnicodeToAnsel().convert(unicode);
+
+        // a table that only implements the mapping is copied
+        UnicodeToAnsel converter = new UnicodeToAnsel() {
+            {
+                rct = hash;
+            }
+        };
+        assertEquals(expected, converter.convert(unicode));
+
+        // a table that overrides a lookup method is used through its methods
+        final ReverseCodeTableHash custom = new ReverseCodeTableHash(AnselToUnicode.class.getResourceAsStream("codetables.xml")) {
+            public boolean charHasMatch(Character c) {
+                return c.charValue() != 'b' && super.charHasMatch(c);
+            }
+        };
+        converter = new UnicodeToAnsel() {
+            {
+                rct = custom;
+            }
+        };
+        assertEquals("a&#x0062;c d\u00E2es", converter.convert("abc de\u0301s"));
+    }
+
+    public void testBinaryCodeTables() throws Exception {
+        CompactCodeTable expected = new CompactCodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expected.write(out);
+        CompactCodeTable table = CompactCodeTable.read(new ByteArrayInputStream(out.toByteArray()));
+        for (int mode = 0; mode < 128; mode++) {
+            for (int c = 0; c < 0x200; c++) {
+                assertEquals(expected.getChar(c, mode), table.getChar(c, mode));
+                assertEquals(expected.isCombining(c, mode, mode), table.isCombining(c, mode, mode));
+            }
+        }
+        for (int c = 0x212121; c < 0x217f7f; c++)
+            assertEquals(expected.getChar(c, 0x31), table.getChar(c, 0x31));
+
+        CompactReverseCodeTable expectedReverse = new CompactReverseCodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml"));
+        out = new ByteArrayOutputStream();
+        expectedReverse.write(out);
+        CompactReverseCodeTable reverse = CompactReverseCodeTable.read(new ByteArrayInputStream(out.toByteArray()));
+        for (int c = 0; c < 65536; c++) {
+            assertEquals(expectedReverse.charHasMatch((char) c), reverse.charHasMatch((char) c));
+            assertEquals(expectedReverse.isCombining((char) c), reverse.isCombining((char) c));
+            if (!reverse.charHasMatch((char) c))
+                continue;
+            expectedReverse.init();
+            reverse.init();
+            assertEquals(expectedReverse.getBestCharSet((char) c), reverse.getBestCharSet((char) c));
+            for (int charset = 0x30; charset < 0x80; charset++) {
+                char[] marc8 = reverse.getCharEntry((char) c, charset);
+                char[] expectedMarc8 = expectedReverse.getCharEntry((char) c, charset);
+                assertEquals(expectedMarc8 == null ? null : new String(expectedMarc8),
+                        marc8 == null ? null : new String(marc8));
+            }
+        }
+
+        try {
+            CompactCodeTable.read(new ByteArrayInputStream(out.toByteArray()));
+            fail("a reverse code table was read as a code table");
+        } catch (MarcException e) {
+        }
+    }
+
+    public void testBinaryCodeTableResources() throws Exception {
+        // the binary tables are shipped as resources and match the XML files
+        assertResource("codetables.bin",
+                new CompactCodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml")));
+        assertResource("codetablesnocjk.bin",
+                new CompactCodeTable(AnselToUnicode.class.getResourceAsStream("codetablesnocjk.xml")));
+        assertResource("codetables.rev.bin",
+                new CompactReverseCodeTable(AnselToUnicode.class.getResourceAsStream("codetables.xml")));
+
+        // and are preferred over the generated tables
+        assertTrue(CodeTables.getCodeTable(true) instanceof CompactCodeTable);
+        assertTrue(CodeTables.getCodeTable(false) instanceof CompactCodeTable);
+        assertFalse(CodeTables.isMultibyteAlwaysLoaded());
+    }
+
+    private void assertResource(String name, Object table) throws Exception {
+        InputStream in = AnselToUnicode.class.getResourceAsStream(name);
+        assertNotNull("missing code table resource " + name, in);
+        ByteArrayOutputStream resource = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0;)
+            resource.write(buf, 0, n);
+        in.close();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        if (table instanceof CompactCodeTable)
+            ((CompactCodeTable) table).write(expected);
+        else
+            ((CompactReverseCodeTable) table).write(expected);
+        assertTrue("code table resource " + name + " is out of date",
+                Arrays.equals(expected.toByteArray(), resource.toByteArray()));
+    }
+
+    public void testCodeTables() throws Exception {
+        assertSame(CodeTables.getCodeTable(true), CodeTables.getCodeTable(true));
+        assertSame(CodeTables.getCodeTable(false), CodeTables.getCodeTable(false));
+        assertNotSame(CodeTables.getReverseCodeTable(), CodeTables.getReverseCodeTable());
+
+        // converters created on several threads share the tables but not
+        // their conversion state
+        final String unicode = "de\u0301s \u03b1\u03b2 \u05d0 \u4e00 cafe\u0301";
+        final String expected = new UnicodeToAnsel().convert(unicode);
+        final String[] results = new String[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    UnicodeToAnsel toAnsel = new UnicodeToAnsel();
+                    AnselToUnicode toUnicode = new AnselToUnicode(true);
+                    String result = null;
+                    for (int j = 0; j < 200; j++) {
+                        String marc8 = toAnsel.convert(unicode);
+                        result = marc8.equals(expected) ? toUnicode.convert(marc8) : marc8;
+                    }
+                    results[n] = result;
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals(unicode, results[i]);
+        }
+    }
+
+    public void testIsoConverters() throws Exception {
+        String unicode = "Fran\u00e7ois M\u00fcller \u00c6 \u0141\u00f3d\u017a \u00a3";
+        String iso5426 = new UnicodeToIso5426().convert(unicode);
+        assertEquals("Fran\u00d0cois M\u00c8uller \u00e1 \u00e8\u00c2od\u00c2z \u00a3", iso5426);
+        byte[] bytes = iso5426.getBytes("ISO-8859-1");
+        assertEquals(unicode, new Iso5426ToUnicode().convert(iso5426));
+        assertEquals(unicode, new Iso5426ToUnicode().convert(bytes));
+        assertEquals("M\u00fcller", new Iso5426ToUnicode().convert(bytes, 10, 7));
+        // a diacritic at the end of the data is not combined
+        assertEquals("e\u00c2", new Iso5426ToUnicode().convert(new byte[] { 'e', (byte) 0xC2 }));
+
+        String iso6937 = new UnicodeToIso6937().convert(unicode);
+        assertEquals(unicode, new Iso6937ToUnicode().convert(iso6937));
+        assertEquals(unicode, new Iso6937ToUnicode().convert(iso6937.getBytes("ISO-8859-1")));
+        assertEquals("?", new UnicodeToIso6937().convert("\u4e00"));
+    }
+
+    public static Test suite() {
+        return new TestSuite(ConverterTest.class);
+    }
+
+    public static void main(String args[]) {
+        TestRunner.run(suite());
+    }
+}
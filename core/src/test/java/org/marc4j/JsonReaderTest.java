@@ -1,6 +1,9 @@
 package org.marc4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -9,6 +12,8 @@ import junit.textui.TestRunner;
 
 import org.marc4j.MarcJsonReader;
 import org.marc4j.MarcReader;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 
 public class JsonReaderTest extends TestCase {
@@ -41,6 +46,122 @@ public class JsonReaderTest extends TestCase {
         assertEquals(1, i);
     }
 
+    public void testStrictMarcJsonReader() throws Exception {
+        MarcFactory factory = MarcFactory.newInstance();
+        StringBuffer data = new StringBuffer();
+        for (int i = 0; i < 2000; i++)
+            data.append("\u00e9\u4e2d\ud834\udd1e \"/\\\t");
+        Record extra = factory.newRecord("00000nam a2200000 a 4500");
+        extra.addVariableField(factory.newControlField("001", "extra"));
+        DataField field = factory.newDataField("500", ' ', ' ');
+        field.addSubfield(factory.newSubfield('a', data.toString()));
+        extra.addVariableField(field);
+
+        for (int indent = 0; indent < 2; indent++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MarcJsonWriter writer = new MarcJsonWriter(out, MarcJsonWriter.MARC_IN_JSON);
+            writer.setEscapeSlash(indent == 1);
+            writer.setIndent(indent == 1);
+            MarcStreamReader input = new MarcStreamReader(
+                    getClass().getResourceAsStream("brkrtest.mrc"));
+            while (input.hasNext())
+                writer.write(input.next());
+            writer.write(extra);
+            writer.close();
+            assertSameRecords(out.toByteArray(), 9);
+        }
+
+        // MarcJsonWriter does not write MARC-JSON as strict JSON
+        String json = "{\"leader\":\"00000nam a2200000 a 4500\",\"controlfield\":"
+                + "[{\"tag\":\"001\",\"data\":\"123\"}],\"datafield\":[{\"tag\":\"245\","
+                + "\"ind\":\"10\",\"subfield\":[{\"code\":\"a\",\"data\":\"A \\u00e9\\/B\"}]}]}\n"
+                + "{\"leader\":\"00000nam a2200000 a 4500\",\"controlfield\":[],\"datafield\":[]}";
+        assertSameRecords(json.getBytes("UTF-8"), 2);
+    }
+
+    private void assertSameRecords(byte[] json, int count) throws Exception {
+        MarcReader expected = new MarcJsonReader(new InputStreamReader(
+                new ByteArrayInputStream(json), "UTF-8"));
+        MarcReader reader = new MarcJsonReader(new ByteArrayInputStream(json), true);
+        int i = 0;
+        while (reader.hasNext()) {
+            assertTrue(expected.hasNext());
+            assertEquals(expected.next().toString(), reader.next().toString());
+            i++;
+        }
+        assertFalse(expected.hasNext());
+        assertEquals(count, i);
+    }
+
+    public void testStrictMarcJsonReaderMalformed() throws Exception {
+        MarcReader reader = new MarcJsonReader(getClass().getResourceAsStream("marc-json.json"), true);
+        try {
+            reader.hasNext();
+            reader.next();
+            fail("expected an exception for unquoted labels");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    public void testParallelMarcJsonReader() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcJsonWriter writer = new MarcJsonWriter(out, MarcJsonWriter.NDJSON);
+        writer.setIndent(true);
+        writer.setQuoteLabels(false);
+        MarcStreamReader input = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        while (input.hasNext())
+            writer.write(input.next());
+        writer.close();
+        out.write("\r\n".getBytes("US-ASCII"));
+        byte[] json = out.toByteArray();
+
+        String[] lines = new String(json, "UTF-8").split("\n");
+        assertEquals(9, lines.length);
+        MarcReader expected = new MarcJsonReader(new ByteArrayInputStream(json), true);
+        ParallelMarcJsonReader reader = new ParallelMarcJsonReader(new ByteArrayInputStream(json), 4);
+        int i = 0;
+        while (reader.hasNext()) {
+            assertTrue(expected.hasNext());
+            assertEquals(expected.next().toString(), reader.next().toString());
+            i++;
+        }
+        reader.close();
+        assertFalse(expected.hasNext());
+        assertEquals(8, i);
+    }
+
+    public void testParallelMarcJsonReaderMalformed() throws Exception {
+        String json = "{\"leader\":\"00000nam a2200000 a 4500\",\"fields\":[]}\n{\"leader\":";
+        ParallelMarcJsonReader reader = new ParallelMarcJsonReader(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), 2);
+        assertNotNull(reader.next());
+        try {
+            reader.next();
+            fail("expected a MarcException");
+        } catch (MarcException e) {
+            assertTrue(e.getMessage().indexOf("line 2") >= 0);
+        }
+        reader.close();
+    }
+
+    public void testNormalize() throws Exception {
+        String[] values = { "plain", "a\u2044b", "a\nb", "a\r\n\t  b", "x\n [\n y",
+                "[\n\n x", "[\r\r\nx", "\n\n[", "a]\n", "\n", "a\r\n\r\n]b" };
+        for (int i = 0; i < values.length; i++) {
+            String expected = values[i].replaceAll("\u2044", "/");
+            expected = expected.replaceAll("\r?\n[ \t]*(\\]|\\[)", "$1");
+            expected = expected.replaceAll("(\\[|\\])\r?\n[ \t]*", "$1");
+            expected = expected.replaceAll("\r?\n[ \t]*", " ");
+            assertEquals(expected, MarcJsonReader.normalize(values[i]));
+        }
+        assertTrue(MarcJsonReader.isTag("245"));
+        assertFalse(MarcJsonReader.isTag("24a"));
+        assertTrue(MarcJsonReader.isSubfieldCode("a"));
+        assertFalse(MarcJsonReader.isSubfieldCode("ab"));
+    }
+
 	public static Test suite() {
 	    return new TestSuite(JsonReaderTest.class);
 	}
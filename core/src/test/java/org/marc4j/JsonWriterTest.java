@@ -73,6 +73,35 @@ public class JsonWriterTest extends TestCase {
         writer.close();
     }
 
+    public void testMarcJsonWriterSubclass() throws Exception {
+        Record record = new MarcStreamReader(getClass().getResourceAsStream("summerland.mrc")).next();
+        int[] formats = { MarcJsonWriter.MARC_IN_JSON, MarcJsonWriter.MARC_JSON, MarcJsonWriter.NDJSON };
+        for (int i = 0; i < formats.length; i++) {
+            final int[] calls = new int[1];
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            MarcJsonWriter plain = new MarcJsonWriter(expected, formats[i]);
+            plain.write(record);
+            plain.close();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MarcJsonWriter writer = new MarcJsonWriter(out, formats[i]) {
+                protected String toMarcJson(Record record) {
+                    calls[0]++;
+                    return super.toMarcJson(record).replace("Summerland", "Sommerland");
+                }
+
+                protected String toMarcInJson(Record record) {
+                    calls[0]++;
+                    return super.toMarcInJson(record).replace("Summerland", "Sommerland");
+                }
+            };
+            writer.write(record);
+            writer.close();
+            assertEquals(1, calls[0]);
+            assertEquals(new String(expected.toByteArray(), "UTF-8").replace("Summerland", "Sommerland"),
+                    new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+
     public void testJsonWriteAndRead() throws Exception {
         InputStream input = getClass().getResourceAsStream(
                 "marc-in-json.json");
@@ -127,7 +156,26 @@ public class JsonWriterTest extends TestCase {
         out.close();
     }
 
-    
+    public void testJsonWriterFlushInterval() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MarcJsonWriter writer = new MarcJsonWriter(expected);
+        MarcStreamReader reader = new MarcStreamReader(getClass().getResourceAsStream("chabon.mrc"));
+        while (reader.hasNext())
+            writer.write(reader.next());
+        writer.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer = new MarcJsonWriter(out);
+        writer.setFlushInterval(0);
+        reader = new MarcStreamReader(getClass().getResourceAsStream("chabon.mrc"));
+        while (reader.hasNext())
+            writer.write(reader.next());
+        // the records are still buffered
+        assertEquals(0, out.size());
+        writer.close();
+        assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(out.toByteArray(), "UTF-8"));
+    }
+
     public static Test suite() {
         return new TestSuite(JsonWriterTest.class);
     }
@@ -11,6 +11,7 @@ import org.marc4j.MarcPermissiveStreamReader;
 import org.marc4j.MarcReader;
 import org.marc4j.marc.Record;
 import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -36,6 +37,21 @@ public class PermissiveReaderTest extends TestCase {
         assertEquals(1, i);
     }
     
+    public void testTagFilter() throws Exception {
+        InputStream input = getClass().getResourceAsStream("chabon.mrc");
+        MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(input, true, true);
+        TagFilter filter = new TagFilter(new String[] { "001", "650" }, true);
+        filter.setSubfieldCodes("650", "a");
+        reader.setTagFilter(filter);
+        Record record = reader.next();
+        input.close();
+        assertEquals("11939876", record.getControlNumber());
+        assertEquals(6, record.getVariableFields().size());
+        DataField field = (DataField) record.getVariableField("650");
+        assertEquals(1, field.getSubfields().size());
+        assertEquals("Comic books, strips, etc.", field.getSubfield('a').getData());
+    }
+    
     public void testTooLongMarcRecord() throws Exception {
        InputStream input = getClass().getResourceAsStream(
         "bad_too_long_plus_2.mrc");
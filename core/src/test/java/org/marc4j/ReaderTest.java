@@ -1,6 +1,15 @@
 package org.marc4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -9,7 +18,11 @@ import junit.textui.TestRunner;
 
 import org.marc4j.MarcStreamReader;
 import org.marc4j.MarcXmlReader;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
+import org.marc4j.marc.VariableField;
+import org.marc4j.marc.impl.LazyRecordImpl;
 
 public class ReaderTest extends TestCase {
 
@@ -27,6 +40,187 @@ public class ReaderTest extends TestCase {
         assertEquals(2, i);
     }
 
+    public void testMarcStreamReaderFields() throws Exception {
+        InputStream input = getClass().getResourceAsStream(
+                "chabon.mrc");
+        MarcStreamReader reader = new MarcStreamReader(input);
+        Record first = reader.next();
+        Record second = reader.next();
+        assertFalse(reader.hasNext());
+        input.close();
+
+        assertEquals("11939876", first.getControlNumber());
+        assertEquals(17, first.getVariableFields().size());
+        assertEquals("12883376", second.getControlNumber());
+        assertEquals(714, second.getLeader().getRecordLength());
+        DataField field = (DataField) second.getVariableField("245");
+        assertEquals('1', field.getIndicator1());
+        assertEquals('0', field.getIndicator2());
+        assertEquals("Summerland /", field.getSubfield('a').getData());
+        assertEquals("Michael Chabon.", field.getSubfield('c').getData());
+    }
+
+    public void testMarcStreamReaderTagFilter() throws Exception {
+        MarcStreamReader reader = new MarcStreamReader(
+                getClass().getResourceAsStream("chabon.mrc"));
+        TagFilter filter = new TagFilter(new String[] { "001", "245", "6XX" }, true);
+        filter.setSubfieldCodes("245", "a");
+        reader.setTagFilter(filter);
+        Record record = reader.next();
+        assertEquals("11939876", record.getControlNumber());
+        assertEquals(1, record.getControlFields().size());
+        assertEquals(9, record.getDataFields().size());
+        DataField title = (DataField) record.getVariableField("245");
+        assertEquals(1, title.getSubfields().size());
+        assertEquals("The amazing adventures of Kavalier and Clay :", 
+                title.getSubfield('a').getData());
+        assertEquals(5, record.getVariableFields("650").size());
+        assertNull(record.getVariableField("100"));
+
+        reader.setTagFilter(new TagFilter(new String[] { "0XX", "5XX", "6XX" }, false));
+        record = reader.next();
+        assertEquals(0, record.getControlFields().size());
+        assertEquals(5, record.getDataFields().size());
+        assertEquals("Summerland /", 
+                ((DataField) record.getVariableField("245")).getSubfield('a').getData());
+    }
+
+    public void testMarcStreamReaderLazyDecoding() throws Exception {
+        MarcStreamReader reader = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        reader.setLazyDecoding(true);
+        MarcStreamReader expected = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        while (reader.hasNext()) {
+            LazyRecordImpl record = (LazyRecordImpl) reader.next();
+            Record eager = expected.next();
+            assertEquals(eager.getControlNumber(), record.getControlNumber());
+            VariableField title = record.getVariableField("245");
+            assertEquals(eager.getVariableField("245").toString(), title.toString());
+            assertFalse(record.isDecoded());
+            assertSame(title, record.getVariableFields("245").get(0));
+
+            assertEquals(eager.toString(), record.toString());
+            assertTrue(record.isDecoded());
+            assertTrue(record.getDataFields().contains(title));
+        }
+        assertFalse(expected.hasNext());
+    }
+
+    public void testMappedMarcFileReader() throws Exception {
+        File file = new File(getClass().getResource("chabon.mrc").getFile());
+        FileInputStream input = new FileInputStream(file);
+        // a window smaller than the file forces the second record to be
+        // read from a newly mapped window
+        MappedMarcFileReader reader = new MappedMarcFileReader(input.getChannel(), null, 1000);
+        int i = 0;
+        MarcStreamReader expected = new MarcStreamReader(getClass().getResourceAsStream("chabon.mrc"));
+        while (reader.hasNext()) {
+            Record record = reader.next();
+            assertEquals(expected.next().toString(), record.toString());
+            i++;
+        }
+        reader.close();
+        input.close();
+        assertEquals(2, i);
+    }
+
+    public void testParallelMarcReader() throws Exception {
+        ParallelMarcReader reader = new ParallelMarcReader(
+                getClass().getResourceAsStream("brkrtest.mrc"), 4);
+        MarcStreamReader expected = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        int i = 0;
+        while (reader.hasNext()) {
+            assertEquals(expected.next().toString(), reader.next().toString());
+            i++;
+        }
+        reader.close();
+        assertFalse(expected.hasNext());
+        assertEquals(8, i);
+    }
+
+    public void testParallelMarcReaderUnordered() throws Exception {
+        ParallelMarcReader reader = new ParallelMarcReader(
+                getClass().getResourceAsStream("brkrtest.mrc"), null, 4, false);
+        Set expected = new HashSet();
+        MarcStreamReader sequential = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        while (sequential.hasNext())
+            expected.add(sequential.next().toString());
+        Set actual = new HashSet();
+        while (reader.hasNext())
+            actual.add(reader.next().toString());
+        reader.close();
+        assertEquals(expected, actual);
+    }
+
+    public void testParallelMarcReaderEncoding() throws Exception {
+        // records with an undefined coding scheme follow UTF-8 and
+        // ISO-8859-1 records and must get the encoding of the record before
+        // them whichever worker decodes them
+        MarcFactory factory = MarcFactory.newInstance();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcStreamWriter writer = new MarcStreamWriter(out, "UTF8");
+        char[] schemes = { 'a', 'b', ' ', 'b' };
+        for (int i = 0; i < 200; i++) {
+            Record record = factory.newRecord("00000nam " + " 2200000 a 4500");
+            record.getLeader().setCharCodingScheme(schemes[i % schemes.length]);
+            record.addVariableField(factory.newControlField("001", String.valueOf(i)));
+            DataField title = factory.newDataField("245", '1', '0');
+            title.addSubfield(factory.newSubfield('a', "Caf\u00e9 " + i));
+            record.addVariableField(title);
+            writer.write(record);
+        }
+        writer.close();
+
+        MarcStreamReader expected = new MarcStreamReader(new ByteArrayInputStream(out.toByteArray()));
+        ParallelMarcReader reader = new ParallelMarcReader(new ByteArrayInputStream(out.toByteArray()), 4);
+        int i = 0;
+        while (reader.hasNext()) {
+            Record record = reader.next();
+            assertEquals(expected.next().toString(), record.toString());
+            // the UTF-8 record and the record that follows it
+            if (i % 4 < 2)
+                assertEquals("Caf\u00e9 " + i, ((DataField) record.getVariableField("245")).getSubfield('a').getData());
+            i++;
+        }
+        reader.close();
+        assertEquals(200, i);
+    }
+
+    public void testParallelMarcReaderError() throws Exception {
+        // a record length that is not a number follows the valid records
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream input = getClass().getResourceAsStream("brkrtest.mrc");
+        byte[] buf = new byte[4096];
+        for (int n; (n = input.read(buf)) > 0;)
+            out.write(buf, 0, n);
+        input.close();
+        out.write("0x714cam a2200205 a 4500".getBytes("ISO-8859-1"));
+
+        ParallelMarcReader reader = new ParallelMarcReader(
+                new ByteArrayInputStream(out.toByteArray()), null, 2, true);
+        MarcStreamReader expected = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        int i = 0;
+        while (expected.hasNext()) {
+            assertTrue(reader.hasNext());
+            assertEquals(expected.next().toString(), reader.next().toString());
+            i++;
+        }
+        assertEquals(8, i);
+        assertTrue(reader.hasNext());
+        try {
+            reader.next();
+            fail("expected a MarcException");
+        } catch (MarcException e) {
+            assertEquals("unable to parse record length", e.getMessage());
+        }
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
     public void testMarcXmlReader() throws Exception {
         int i = 0;
         InputStream input = getClass().getResourceAsStream(
@@ -41,6 +235,69 @@ public class ReaderTest extends TestCase {
         assertEquals(2, i);
     }
 
+    public void testMarcXmlPullReader() throws Exception {
+        MarcXmlReader expected = new MarcXmlReader(getClass().getResourceAsStream("chabon.xml"));
+        MarcXmlPullReader reader = new MarcXmlPullReader(getClass().getResourceAsStream("chabon.xml"));
+        int i = 0;
+        while (reader.hasNext()) {
+            assertTrue(reader.hasNext());
+            assertEquals(expected.next().toString(), reader.next().toString());
+            i++;
+        }
+        reader.close();
+        assertFalse(expected.hasNext());
+        assertEquals(2, i);
+    }
+
+    public void testMarcXmlPullReaderTransformerHandler() throws Exception {
+        SAXTransformerFactory factory = (SAXTransformerFactory) TransformerFactory.newInstance();
+        // the identity transformation
+        MarcXmlPullReader reader = new MarcXmlPullReader(
+                getClass().getResourceAsStream("summerland.xml"), factory.newTransformerHandler());
+        MarcXmlReader expected = new MarcXmlReader(getClass().getResourceAsStream("summerland.xml"));
+        assertTrue(reader.hasNext());
+        assertEquals(expected.next().toString(), reader.next().toString());
+        assertFalse(reader.hasNext());
+    }
+
+    public void testMarcXmlReaderBatches() throws Exception {
+        MarcStreamReader expected = new MarcStreamReader(
+                getClass().getResourceAsStream("brkrtest.mrc"));
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        MarcXmlWriter writer = new MarcXmlWriter(xml);
+        while (expected.hasNext())
+            writer.write(expected.next());
+        writer.close();
+
+        // batches that do not divide the number of records
+        MarcXmlReader reader = new MarcXmlReader(
+                new ByteArrayInputStream(xml.toByteArray()), 3, 1);
+        expected = new MarcStreamReader(getClass().getResourceAsStream("brkrtest.mrc"));
+        int i = 0;
+        while (reader.hasNext()) {
+            assertEquals(expected.next().getControlNumber(), reader.next().getControlNumber());
+            i++;
+        }
+        assertEquals(8, i);
+        assertNull(reader.next());
+    }
+
+    public void testMarcXmlReaderException() throws Exception {
+        String xml = "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">"
+                + "<record><leader>00714cam a2200205 a 4500</leader>"
+                + "<controlfield tag=\"001\">12883376</controlfield></record>"
+                + "<record><leader>";
+        MarcXmlReader reader = new MarcXmlReader(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        assertTrue(reader.hasNext());
+        assertEquals("12883376", reader.next().getControlNumber());
+        try {
+            reader.hasNext();
+            fail("expected a MarcException");
+        } catch (MarcException e) {
+            // expected
+        }
+    }
+
 	public static Test suite() {
 	    return new TestSuite(ReaderTest.class);
 	}
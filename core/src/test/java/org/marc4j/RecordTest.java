@@ -1,13 +1,23 @@
 package org.marc4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
 
+import org.marc4j.MarcException;
 import org.marc4j.MarcReader;
 import org.marc4j.MarcStreamReader;
 import org.marc4j.marc.ControlField;
@@ -15,6 +25,16 @@ import org.marc4j.marc.DataField;
 import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 import org.marc4j.marc.VariableField;
+import org.marc4j.marc.impl.ControlFieldImpl;
+import org.marc4j.marc.impl.DataFieldImpl;
+import org.marc4j.marc.impl.IndexedMarcFactoryImpl;
+import org.marc4j.marc.impl.LazyRecordImpl;
+import org.marc4j.marc.impl.MarcFactoryImpl;
+import org.marc4j.marc.impl.PackedRecordImpl;
+import org.marc4j.marc.impl.PatternCache;
+import org.marc4j.marc.impl.SortedMarcFactoryImpl;
+import org.marc4j.marc.impl.SubfieldImpl;
+import org.marc4j.marc.impl.TagTable;
 
 public class RecordTest extends TestCase {
 
@@ -91,6 +111,29 @@ public class RecordTest extends TestCase {
 
     }
 
+    public void testFindPattern() throws Exception {
+        Pattern chabon = Pattern.compile("[Cc]habo[a-z]");
+        assertEquals(2, record.find(chabon).size());
+        assertEquals(1, record.find("100", chabon).size());
+        assertEquals(1, record.find(new String[] { "100", "260", "300" }, chabon).size());
+        assertTrue(record.getVariableField("245").find(chabon));
+        assertFalse(record.getVariableField("008").find(chabon));
+        assertTrue(((DataField) record.getVariableField("100")).getSubfield('a').find(chabon));
+        assertEquals(record.find(chabon), record.find("[Cc]habo[a-z]"));
+        assertEquals(2, new PackedRecordImpl(record).find(chabon).size());
+
+        // more expressions than the cache holds, one of which is used all the time
+        Pattern hot = PatternCache.compile("[Cc]habo[a-z]");
+        Pattern first = PatternCache.compile("x0");
+        for (int i = 0; i < 2 * PatternCache.MAX_SIZE; i++) {
+            assertEquals("x" + i, PatternCache.compile("x" + i).pattern());
+            assertSame(hot, PatternCache.compile("[Cc]habo[a-z]"));
+        }
+        // the least recently used expression was discarded
+        assertNotSame(first, PatternCache.compile("x0"));
+        assertEquals(2, record.find("[Cc]habo[a-z]").size());
+    }
+
     public void testCreateRecord() throws Exception {
         MarcFactory factory = MarcFactory.newInstance();
         Record record = factory.newRecord("00000cam a2200000 a 4500");
@@ -104,6 +147,256 @@ public class RecordTest extends TestCase {
         record.addVariableField(df);
     }
 
+    public void testIndexedRecord() throws Exception {
+        MarcFactory factory = new MarcFactoryImpl();
+        MarcFactory indexedFactory = new IndexedMarcFactoryImpl();
+        Record expected = factory.newRecord();
+        Record indexed = indexedFactory.newRecord();
+        String[] tags = { "001", "003", "005", "008", "020", "100", "245", "650", "650", "700", "999", "CAT", "LKR" };
+        Random random = new Random(1);
+        for (int i = 0; i < 300; i++) {
+            String tag = tags[random.nextInt(tags.length)];
+            VariableField field;
+            if (tag.startsWith("00"))
+                field = factory.newControlField(tag, "data " + i);
+            else
+                field = factory.newDataField(tag, ' ', ' ');
+            expected.addVariableField(field);
+            indexed.addVariableField(field);
+            if (i % 50 == 49) {
+                // remove a field, and change the lists directly
+                VariableField removed = (VariableField) expected.getDataFields().get(random.nextInt(expected.getDataFields().size()));
+                expected.removeVariableField(removed);
+                indexed.removeVariableField(removed);
+                Object replacement = factory.newDataField("245", '1', '0');
+                expected.getDataFields().set(0, replacement);
+                indexed.getDataFields().set(0, replacement);
+            }
+            if (i % 10 == 0)
+                assertSameFields(expected, indexed, tags);
+        }
+        assertSameFields(expected, indexed, tags);
+        assertEquals(expected.toString(), indexed.toString());
+        assertNull(indexed.getVariableField("500"));
+        assertEquals(0, indexed.getVariableFields("500").size());
+
+        // a field is retagged by removing it and adding it again
+        DataField df = (DataField) indexed.getVariableField("700");
+        expected.removeVariableField(df);
+        indexed.removeVariableField(df);
+        df.setTag("710");
+        expected.addVariableField(df);
+        indexed.addVariableField(df);
+        assertFalse(indexed.getVariableFields("700").contains(df));
+        assertSame(df, indexed.getVariableField("710"));
+        assertEquals(expected.getVariableFields("710"), indexed.getVariableFields("710"));
+        assertSameFields(expected, indexed, tags);
+
+        // replacing a field through a list iterator
+        ListIterator i = indexed.getDataFields().listIterator();
+        VariableField replaced = (VariableField) i.next();
+        i.set(df);
+        i.next();
+        i = expected.getDataFields().listIterator();
+        i.next();
+        i.set(df);
+        assertFalse(indexed.getVariableFields(replaced.getTag()).contains(replaced));
+        assertSameFields(expected, indexed, tags);
+
+        String property = System.getProperty("org.marc4j.marc.MarcFactory");
+        System.setProperty("org.marc4j.marc.MarcFactory", IndexedMarcFactoryImpl.class.getName());
+        try {
+            assertTrue(MarcFactory.newInstance() instanceof IndexedMarcFactoryImpl);
+        } finally {
+            if (property == null)
+                System.getProperties().remove("org.marc4j.marc.MarcFactory");
+            else
+                System.setProperty("org.marc4j.marc.MarcFactory", property);
+        }
+    }
+
+    public void testSharedTags() throws Exception {
+        // tags read from a record are the shared instances
+        assertSame(TagTable.getTag(245), record.getVariableField("245").getTag());
+        assertSame(TagTable.getTag(1), record.getControlNumberField().getTag());
+
+        MarcFactory factory = MarcFactory.newInstance();
+        DataField field = factory.newDataField(new String("650"), ' ', '0');
+        assertSame(TagTable.getTag(650), field.getTag());
+        field = factory.newDataField(20, '1', ' ');
+        assertEquals("020", field.getTag());
+        assertEquals('1', field.getIndicator1());
+        ControlField cf = factory.newControlField(8, "020805s2002");
+        assertSame("008", cf.getTag());
+        cf.setTag("LKR");
+        assertEquals("LKR", cf.getTag());
+        assertEquals(-1, TagTable.getTagNumber("LKR"));
+        try {
+            factory.newDataField(1000, ' ', ' ');
+            fail("a tag number above 999 was accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testSortedRecord() throws Exception {
+        MarcFactory factory = new MarcFactoryImpl();
+        Record expected = factory.newRecord();
+        Record sorted = new SortedMarcFactoryImpl().newRecord();
+        String[] tags = { "000", "001", "003", "005", "008", "020", "100", "245", "650", "700", "999" };
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            String tag = tags[random.nextInt(tags.length)];
+            VariableField field;
+            if (tag.startsWith("00"))
+                field = factory.newControlField(tag, "data " + i);
+            else
+                field = factory.newDataField(tag, ' ', ' ');
+            if (i % 100 == 99) {
+                // a field added to the list directly is sorted in on the
+                // next add
+                expected.getDataFields().add(field);
+                sorted.getDataFields().add(field);
+                continue;
+            }
+            // a full stable sort after every add, as SortedRecordImpl did
+            expected.addVariableField(field);
+            Collections.sort(field instanceof DataField ? expected.getDataFields() : expected.getControlFields());
+            sorted.addVariableField(field);
+            assertEquals(expected.getControlFields(), sorted.getControlFields());
+            assertEquals(expected.getDataFields(), sorted.getDataFields());
+        }
+
+        // a field replaced through a list iterator is sorted in on the next add
+        DataField field = factory.newDataField("999", ' ', ' ');
+        ListIterator i = sorted.getDataFields().listIterator();
+        i.next();
+        i.set(field);
+        i.next();
+        i = expected.getDataFields().listIterator();
+        i.next();
+        i.set(field);
+        field = factory.newDataField("245", ' ', ' ');
+        expected.addVariableField(field);
+        Collections.sort(expected.getDataFields());
+        sorted.addVariableField(field);
+        assertEquals(expected.getDataFields(), sorted.getDataFields());
+    }
+
+    public void testLazyRecordDecodingError() throws Exception {
+        final MarcFactory factory = MarcFactory.newInstance();
+        final int[] failures = { 1 };
+        String[] tags = { "001", "245", "650" };
+        LazyRecordImpl.FieldDecoder decoder = new LazyRecordImpl.FieldDecoder() {
+            public VariableField decodeField(String tag, byte[] data, int offset, int length) {
+                if (tag.equals("650") && failures[0]-- > 0)
+                    throw new MarcException("unable to decode field");
+                if (tag.equals("001"))
+                    return factory.newControlField(tag, "12883376");
+                return factory.newDataField(tag, ' ', ' ');
+            }
+        };
+        LazyRecordImpl record = new LazyRecordImpl(factory.newLeader("00000cam a2200000 a 4500"),
+                new byte[0], tags, new int[3], new int[3], decoder);
+        try {
+            record.getDataFields();
+            fail("expected a MarcException");
+        } catch (MarcException e) {
+        }
+        assertFalse(record.isDecoded());
+        // the fields decoded before the error are added once
+        assertEquals(1, record.getControlFields().size());
+        assertEquals(2, record.getDataFields().size());
+        assertTrue(record.isDecoded());
+    }
+
+    public void testPackedRecord() throws Exception {
+        PackedRecordImpl packed = new PackedRecordImpl(record);
+        assertEquals(record.toString(), packed.toString());
+        assertEquals("12883376", packed.getControlNumber());
+        assertEquals(3, packed.getControlFields().size());
+        assertEquals(12, packed.getDataFields().size());
+        assertEquals(3, packed.getVariableFields("650").size());
+        String[] tags = { "245", "260", "300" };
+        assertEquals(3, packed.getVariableFields(tags).size());
+        assertNull(packed.getVariableField("500"));
+
+        DataField field = (DataField) packed.getVariableField("245");
+        assertEquals('1', field.getIndicator1());
+        assertEquals('0', field.getIndicator2());
+        assertEquals("Summerland /", field.getSubfield('a').getData());
+        assertEquals(1, field.getSubfields('c').size());
+        assertEquals(field, packed.getVariableFields("245").get(0));
+        assertEquals(record.getVariableField("245").toString(), field.toString());
+
+        assertTrue(field.find("Sum*erland"));
+        assertEquals(1, packed.find("Summerland").size());
+        assertEquals(2, packed.find("Chabon").size());
+        assertEquals(1, packed.find("100", "Chabon").size());
+        assertEquals(2, packed.find(new String[] { "100", "245" }, "Chabon").size());
+        assertTrue(packed.getVariableField("008").find("eng"));
+
+        // the packed record is written exactly like the original
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MarcWriter writer = new MarcStreamWriter(expected);
+        writer.write(record);
+        writer.close();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer = new MarcStreamWriter(actual);
+        writer.write(packed);
+        writer.close();
+        assertEquals(expected.toString("ISO-8859-1"), actual.toString("ISO-8859-1"));
+
+        try {
+            field.addSubfield(MarcFactory.newInstance().newSubfield('a', "data"));
+            fail("a packed field was modified");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            packed.getDataFields().remove(0);
+            fail("a packed record was modified");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        Record unpacked = packed.unpack(new MarcFactoryImpl());
+        assertEquals(record.toString(), unpacked.toString());
+        unpacked.removeVariableField(unpacked.getVariableField("245"));
+        assertEquals(11, unpacked.getDataFields().size());
+
+        // the tags are the shared instances, also after serialization, and
+        // a view is serialized as an unpacked copy
+        assertSame(TagTable.getTag(245), field.getTag());
+        PackedRecordImpl copy = (PackedRecordImpl) serializeAndRead(packed);
+        assertEquals(packed.toString(), copy.toString());
+        assertSame(TagTable.getTag(245), copy.getVariableField("245").getTag());
+        Object fieldCopy = serializeAndRead(field);
+        assertTrue(fieldCopy instanceof DataFieldImpl);
+        assertEquals(field.toString(), fieldCopy.toString());
+        Object controlFieldCopy = serializeAndRead(packed.getVariableField("001"));
+        assertTrue(controlFieldCopy instanceof ControlFieldImpl);
+        assertEquals(packed.getVariableField("001").toString(), controlFieldCopy.toString());
+        Object subfieldCopy = serializeAndRead(field.getSubfield('a'));
+        assertTrue(subfieldCopy instanceof SubfieldImpl);
+        assertEquals("$aSummerland /", subfieldCopy.toString());
+    }
+
+    private static Object serializeAndRead(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    private void assertSameFields(Record expected, Record indexed, String[] tags) {
+        for (int i = 0; i < tags.length; i++) {
+            assertSame(expected.getVariableField(tags[i]), indexed.getVariableField(tags[i]));
+            assertEquals(expected.getVariableFields(tags[i]), indexed.getVariableFields(tags[i]));
+        }
+        String[] some = { "650", "CAT", "001", "245", "650" };
+        assertEquals(expected.getVariableFields(some), indexed.getVariableFields(some));
+        assertEquals(Arrays.asList(expected.getVariableFields().toArray()), indexed.getVariableFields());
+    }
+
     public void tearDown() {
         record = null;
     }
@@ -2,7 +2,13 @@ package org.marc4j;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -14,6 +20,12 @@ import org.marc4j.MarcStreamReader;
 import org.marc4j.MarcStreamWriter;
 import org.marc4j.MarcXmlReader;
 import org.marc4j.MarcXmlWriter;
+import org.marc4j.converter.CharConverter;
+import org.marc4j.converter.impl.AnselToUnicode;
+import org.marc4j.converter.impl.UnicodeToAnsel;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 
 public class WriterTest extends TestCase {
@@ -58,6 +70,39 @@ public class WriterTest extends TestCase {
         writer.close();
     }
 
+    public void testMarcXmlStreamWriter() throws Exception {
+        for (int indent = 0; indent < 2; indent++) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            MarcXmlWriter xmlWriter = new MarcXmlWriter(expected, indent == 1);
+            xmlWriter.setConverter(new AnselToUnicode());
+            xmlWriter.setUnicodeNormalization(true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MarcXmlStreamWriter writer = new MarcXmlStreamWriter(out, indent == 1);
+            writer.setConverter(new AnselToUnicode());
+            writer.setUnicodeNormalization(true);
+
+            MarcStreamReader reader = new MarcStreamReader(getClass().getResourceAsStream("brkrtest.mrc"));
+            while (reader.hasNext()) {
+                Record record = reader.next();
+                xmlWriter.write(record);
+                writer.write(record);
+            }
+            MarcFactory factory = MarcFactory.newInstance();
+            Record record = factory.newRecord("00000nam a2200000 a 4500");
+            record.addVariableField(factory.newControlField("001",
+                    "a&b<c>d\"e'f\tg\nh\ri\u0001j\u007fk\u0085l\u00e9m\u2028n\ud83d\ude00o"));
+            DataField field = factory.newDataField("2\"\t", '&', '"');
+            field.addSubfield(factory.newSubfield('<', "x > y"));
+            record.addVariableField(field);
+            xmlWriter.write(record);
+            writer.write(record);
+            xmlWriter.close();
+            writer.close();
+
+            assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+
     public void testWriteAndRead() throws Exception {
         InputStream input = getClass().getResourceAsStream(
                 "summerland.xml");
@@ -84,6 +129,161 @@ public class WriterTest extends TestCase {
         out.close();
     }
 
+    public void testMarcStreamWriterIdenticalOutput() throws Exception {
+        InputStream input = getClass().getResourceAsStream("brkrtest.mrc");
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = input.read(buf)) != -1)
+            original.write(buf, 0, n);
+        input.close();
+
+        MarcStreamReader reader = new MarcStreamReader(new ByteArrayInputStream(
+                original.toByteArray()), "ISO8859_1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcStreamWriter writer = new MarcStreamWriter(out);
+        while (reader.hasNext())
+            writer.write(reader.next());
+        writer.close();
+
+        assertTrue(Arrays.equals(original.toByteArray(), out.toByteArray()));
+    }
+
+    public void testMarcStreamWriterSubclass() throws Exception {
+        final int[] calls = new int[2];
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MarcStreamWriter plain = new MarcStreamWriter(expected);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcStreamWriter writer = new MarcStreamWriter(out) {
+            protected void writeLeader(Leader ldr) throws IOException {
+                calls[0]++;
+                super.writeLeader(ldr);
+            }
+
+            protected byte[] getEntry(String tag, int length, int start) throws IOException {
+                calls[1]++;
+                return super.getEntry(tag, length, start);
+            }
+        };
+        MarcStreamReader reader = new MarcStreamReader(getClass().getResourceAsStream("summerland.mrc"));
+        Record record = reader.next();
+        plain.write(record);
+        writer.write(record);
+        assertEquals(1, calls[0]);
+        assertEquals(record.getVariableFields().size(), calls[1]);
+        assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+    }
+
+    public void testConcurrentMarcStreamWriterOrdered() throws Exception {
+        final List records = new ArrayList();
+        MarcStreamReader reader = new MarcStreamReader(getClass().getResourceAsStream("brkrtest.mrc"));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MarcStreamWriter sequential = new MarcStreamWriter(expected);
+        while (reader.hasNext()) {
+            Record record = reader.next();
+            records.add(record);
+            sequential.write(record);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ConcurrentMarcStreamWriter writer = new ConcurrentMarcStreamWriter(out, "ISO8859_1", false, 2);
+        Thread[] threads = new Thread[3];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = first; i < records.size(); i += 3)
+                        writer.write(i, (Record) records.get(i));
+                }
+            };
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].start();
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        writer.close();
+
+        assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+    }
+
+    public void testConcurrentMarcStreamWriterUnordered() throws Exception {
+        final List records = new ArrayList();
+        Set expected = new HashSet();
+        MarcStreamReader reader = new MarcStreamReader(getClass().getResourceAsStream("brkrtest.mrc"));
+        while (reader.hasNext()) {
+            Record record = reader.next();
+            records.add(record);
+            expected.add(record.toString());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ConcurrentMarcStreamWriter writer = new ConcurrentMarcStreamWriter(out);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = first; i < records.size(); i += 4)
+                        writer.write((Record) records.get(i));
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        writer.close();
+
+        Set actual = new HashSet();
+        reader = new MarcStreamReader(new ByteArrayInputStream(out.toByteArray()));
+        while (reader.hasNext())
+            actual.add(reader.next().toString());
+        assertEquals(expected, actual);
+    }
+
+    public void testConcurrentMarcStreamWriterConverter() throws Exception {
+        final List records = new ArrayList();
+        MarcStreamReader reader = new MarcStreamReader(getClass().getResourceAsStream("brkrtest.mrc"));
+        while (reader.hasNext())
+            records.add(reader.next());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MarcStreamWriter sequential = new MarcStreamWriter(expected);
+        sequential.setConverter(new UnicodeToAnsel());
+        for (int n = 0; n < 20; n++)
+            for (int i = 0; i < records.size(); i++)
+                sequential.write((Record) records.get(i));
+
+        for (int mode = 0; mode < 2; mode++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ConcurrentMarcStreamWriter writer = new ConcurrentMarcStreamWriter(out);
+            if (mode == 0) {
+                // a converter that keeps state, shared by all threads
+                writer.setConverter(new UnicodeToAnsel());
+            } else {
+                writer.setConverterFactory(new ConcurrentMarcStreamWriter.ConverterFactory() {
+                    public CharConverter newConverter() {
+                        return new UnicodeToAnsel();
+                    }
+                });
+            }
+            final int count = records.size() * 20;
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                final int first = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        for (int i = first; i < count; i += 8)
+                            writer.write(i, (Record) records.get(i % records.size()));
+                    }
+                };
+                threads[t].start();
+            }
+            for (int t = 0; t < threads.length; t++)
+                threads[t].join();
+            writer.close();
+            assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+        }
+    }
+
     public static Test suite() {
         return new TestSuite(WriterTest.class);
     }